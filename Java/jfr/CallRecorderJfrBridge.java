@@ -0,0 +1,127 @@
+/**
+ * CallRecorderJfrBridge forwards the phases and calls recorded by a
+ * {@link CallRecorder} to Java Flight Recorder as custom events, so they show
+ * up in a flight recording next to the JVM's own events.
+ *
+ * The sample itself targets Java 1.7, which has no Flight Recorder event API,
+ * so this bridge is kept out of the src folder. It requires Java 11 or newer
+ * and is compiled against the classes of the sample, e.g.
+ *
+ *   javac -cp bin:libs/org.json-20120521.jar -d bin jfr/CallRecorderJfrBridge.java
+ *
+ * Usage:
+ *
+ *   CallRecorderJfrBridge.install(api.getCallRecorder());
+ *
+ * and start the application with -XX:StartFlightRecording, the events are
+ * listed under "Wikitude Cloud Targets API".
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class CallRecorderJfrBridge implements CallRecorder.Listener {
+
+    /**
+     * One phase of a call, e.g. opening the connection or one poll of an asynchronous operation.
+     */
+    @Name("com.wikitude.cloudrecognition.Phase")
+    @Label("API Call Phase")
+    @Category("Wikitude Cloud Targets API")
+    @Description("A single step of a call to the Wikitude Cloud Targets API")
+    static class PhaseEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Endpoint")
+        @Description("Path of the endpoint with ids replaced by placeholders")
+        String template;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Phase Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long phaseDuration;
+
+        @Label("Bytes")
+        @Description("Bytes written or read in this phase, -1 if no data was transferred")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * A complete call, including the polls of asynchronous operations.
+     */
+    @Name("com.wikitude.cloudrecognition.Call")
+    @Label("API Call")
+    @Category("Wikitude Cloud Targets API")
+    @Description("A call to the Wikitude Cloud Targets API")
+    static class CallEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Endpoint")
+        @Description("Path of the endpoint with ids replaced by placeholders")
+        String template;
+
+        @Label("Call Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long callDuration;
+
+        @Label("Active Duration")
+        @Description("Duration without the waits between the polls of asynchronous operations")
+        @Timespan(Timespan.NANOSECONDS)
+        long activeDuration;
+    }
+
+    /**
+     * Registers a bridge at the given recorder.
+     * @param recorder recorder of an API object, see {@link CloudManagerAPI#getCallRecorder()}
+     * @return the registered bridge, to remove it from the recorder again
+     */
+    public static CallRecorderJfrBridge install(final CallRecorder recorder) {
+        final CallRecorderJfrBridge bridge = new CallRecorderJfrBridge();
+        recorder.addListener(bridge);
+        return bridge;
+    }
+
+    @Override
+    public void onPhase(final CallRecorder.Call call, final CallRecorder.Phase phase) {
+        final PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        // the phase already ended, its duration is carried as field
+        event.method = call.getMethod();
+        event.template = call.getTemplate();
+        event.phase = phase.getName();
+        event.phaseDuration = phase.getDurationNanos();
+        event.bytes = phase.getBytes();
+        event.commit();
+    }
+
+    @Override
+    public void onCallEnd(final CallRecorder.Call call) {
+        final CallEvent event = new CallEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.method = call.getMethod();
+        event.template = call.getTemplate();
+        event.callDuration = call.getDurationNanos();
+        event.activeDuration = call.getActiveNanos();
+        event.commit();
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * AllocationCheck sends requests through {@link CloudManagerAPI} to a local
+ * {@link ConformanceStubServer} and checks how many bytes the calling thread
+ * allocates per call, so regressions of the reused body buffers show up.
+ *
+ * Usage: java AllocationCheck
+ *
+ * The check is skipped on virtual machines that cannot measure the
+ * allocations of a thread.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+public class AllocationCheck {
+
+    private static final String API_TOKEN = "allocation-token";
+    private static final int API_VERSION = 3;
+    private static final int POLL_INTERVAL = 100;
+    private static final int JOB_LATENCY = 300;
+    // calls before measuring, so class loading, the JIT and the keep-alive cache have settled
+    private static final int WARM_UP_CALLS = 200;
+    private static final int MEASURED_CALLS = 200;
+    // size of the metadata sent with each update, large enough that copies of the body dominate
+    private static final int PAYLOAD_SIZE = 64 * 1024;
+
+    /*
+     * The budgets are about 1.3 times the allocations measured with the reused body buffers, so reading the
+     * response through readers and per-line strings, or copying the payload into an internal buffer of
+     * HttpURLConnection, each exceeds its budget on its own.
+     */
+    // a small read: connection handling of HttpURLConnection and the JSON parsing of the response
+    private static final long READ_BUDGET = 28 * 1024;
+    // a write of the payload that is rejected with a small error, so the response does not hide the request side
+    private static final long WRITE_BUDGET = 320 * 1024;
+    // an update with the payload: the payload is held as string, echoed and parsed from the response
+    private static final long UPDATE_BUDGET = 680 * 1024;
+
+    /**
+     * One kind of call whose allocations are measured.
+     */
+    private interface Workload {
+        void call() throws Exception;
+    }
+
+    public static void main(String args[]) throws Exception {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            System.out.println("skipped, the virtual machine cannot measure allocations per thread");
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final ConformanceStubServer server = new ConformanceStubServer(JOB_LATENCY);
+        boolean withinBudget = true;
+
+        try {
+            final CloudManagerAPI api = new CloudManagerAPI(API_TOKEN, API_VERSION, POLL_INTERVAL, server.getEndpoint());
+            final String tcId = api.createTargetCollection("allocation").getString("id");
+            final JSONObject target = new JSONObject();
+            target.put("name", "target_1");
+            target.put("imageUrl", "http://s3-eu-west-1.amazonaws.com/web-api-hosting/examples_data/surfer.jpeg");
+            final String targetId = api.addTarget(tcId, target).getString("id");
+
+            final char[] metadata = new char[PAYLOAD_SIZE];
+            Arrays.fill(metadata, 'x');
+            final JSONObject changes = new JSONObject();
+            changes.put("metadata", new JSONObject().put("payload", new String(metadata)));
+
+            withinBudget &= check(allocations, "GET target collection", READ_BUDGET, new Workload() {
+                @Override
+                public void call() throws Exception {
+                    api.getTargetCollection(tcId);
+                }
+            });
+            withinBudget &= check(allocations, "POST update of missing target", WRITE_BUDGET, new Workload() {
+                @Override
+                public void call() throws Exception {
+                    try {
+                        api.updateTarget(tcId, "missing", changes);
+                    } catch (CloudManagerAPI.APIException e) {
+                        // expected, the payload was sent anyway
+                    }
+                }
+            });
+            withinBudget &= check(allocations, "POST target update", UPDATE_BUDGET, new Workload() {
+                @Override
+                public void call() throws Exception {
+                    api.updateTarget(tcId, targetId, changes);
+                }
+            });
+
+            api.deleteTargetCollection(tcId);
+        } finally {
+            server.close();
+        }
+
+        System.exit(withinBudget ? 0 : 1);
+    }
+
+    /**
+     * @return true if the bytes allocated per call stay within the given budget
+     */
+    private static boolean check(final com.sun.management.ThreadMXBean allocations, final String name, final long budget, final Workload workload) throws Exception {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            workload.call();
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            workload.call();
+        }
+        final long perCall = (allocations.getThreadAllocatedBytes(threadId) - before) / MEASURED_CALLS;
+
+        final boolean withinBudget = perCall <= budget;
+        System.out.println(String.format("%s: %d bytes per call, budget %d bytes%s", name, perCall, budget, withinBudget ? "" : " - exceeded"));
+
+        return withinBudget;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * BatchHeatmapGenerator generates heatmaps for many images concurrently and
+ * keeps the results in a persistent on-disk cache.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class BatchHeatmapGenerator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CACHE_FILE_EXTENSION = ".json";
+
+    private final CloudManagerAPI api;
+    // directory of the cache, results are stored per API version
+    private final File cacheDirectory;
+    // bounds the number of heatmaps generated at the same time
+    private final ExecutorService executor;
+    // generations currently in flight, keyed by content hash, so equal images are only sent once
+    private final ConcurrentMap<String, Future<JSONObject>> inFlight = new ConcurrentHashMap<String, Future<JSONObject>>();
+
+    /**
+     * Creates a new generator on top of the given API object.
+     *
+     * @param api
+     *            The API object used to generate heatmaps
+     * @param cacheDirectory
+     *            The directory where generated heatmaps are cached
+     * @param maxConcurrentGenerations
+     *            The maximal number of heatmaps that are generated at the same time
+     */
+    public BatchHeatmapGenerator(final CloudManagerAPI api, final File cacheDirectory, final int maxConcurrentGenerations) {
+        if (maxConcurrentGenerations < 1) {
+            throw new IllegalArgumentException("maxConcurrentGenerations must be at least 1");
+        }
+        this.api = api;
+        this.cacheDirectory = new File(cacheDirectory, "v" + api.getVersion());
+        this.executor = Executors.newFixedThreadPool(maxConcurrentGenerations);
+    }
+
+    /**
+     * Generates heatmaps for all given images. Images whose content was already processed with the same API version
+     * are served from the cache without contacting the service.
+     * @param imageUrls The paths to the images of which heatmaps should be created.
+     * @return the completed heatmap generation job objects, keyed by image url in the order of the given urls
+     * @throws IOException thrown in case of network problems or if the cache could not be accessed
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting for the generations is interrupted
+     */
+    public Map<String, JSONObject> generateHeatmaps(final Collection<String> imageUrls) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Map<String, Future<JSONObject>> pending = new LinkedHashMap<String, Future<JSONObject>>();
+        for (final String imageUrl : imageUrls) {
+            if (!pending.containsKey(imageUrl)) {
+                pending.put(imageUrl, executor.submit(new Callable<JSONObject>() {
+                    @Override
+                    public JSONObject call() throws Exception {
+                        return generateHeatmap(imageUrl);
+                    }
+                }));
+            }
+        }
+
+        final Map<String, JSONObject> heatmaps = new LinkedHashMap<String, JSONObject>();
+        for (final Map.Entry<String, Future<JSONObject>> entry : pending.entrySet()) {
+            heatmaps.put(entry.getKey(), Futures.await(entry.getValue()));
+        }
+
+        return heatmaps;
+    }
+
+    /**
+     * Generates the heatmap of a single image, served from the cache if possible.
+     * @param imageUrl The path to the image of which a heatmap should be created.
+     * @return the completed heatmap generation job object.
+     * @throws IOException thrown in case of network problems or if the cache could not be accessed
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case polling is interrupted
+     */
+    public JSONObject generateHeatmap(final String imageUrl) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final String contentHash = ContentHash.of(imageUrl);
+        final JSONObject cached = readCache(contentHash);
+        if (cached != null) {
+            return cached;
+        }
+
+        final FutureTask<JSONObject> generation = new FutureTask<JSONObject>(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                final JSONObject heatmap = api.generateHeatmap(imageUrl);
+                writeCache(contentHash, heatmap);
+                return heatmap;
+            }
+        });
+        Future<JSONObject> running = inFlight.putIfAbsent(contentHash, generation);
+        if (running == null) {
+            running = generation;
+            try {
+                generation.run();
+            } finally {
+                inFlight.remove(contentHash, generation);
+            }
+        }
+
+        return Futures.await(running);
+    }
+
+    /**
+     * Stops the worker threads of this generator, pending generations are finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private JSONObject readCache(final String contentHash) throws IOException, JSONException {
+        final File cacheFile = getCacheFile(contentHash);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        final String content = new String(Files.readAllBytes(cacheFile.toPath()), UTF_8);
+
+        return new JSONObject(content);
+    }
+
+    private void writeCache(final String contentHash, final JSONObject heatmap) throws IOException {
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs() && !cacheDirectory.isDirectory()) {
+            throw new IOException("Unable to create cache directory " + cacheDirectory);
+        }
+        // write to a temporary file first, so readers never see a partially written entry
+        final File tempFile = File.createTempFile(contentHash, ".tmp", cacheDirectory);
+        Files.write(tempFile.toPath(), heatmap.toString().getBytes(UTF_8));
+        Files.move(tempFile.toPath(), getCacheFile(contentHash).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File getCacheFile(final String contentHash) {
+        return new File(cacheDirectory, contentHash + CACHE_FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * CallRecorder records the timing of each phase of the calls to the Wikitude
+ * Cloud Targets API and keeps the breakdown of slow calls in a ring buffer.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class CallRecorder {
+
+    /**
+     * Receives the phases of all calls as they happen, e.g. to forward them to a profiler or metrics system. See
+     * CallRecorderJfrBridge in the jfr folder for a listener that emits Java Flight Recorder events.
+     */
+    public interface Listener {
+        void onPhase(Call call, Phase phase);
+
+        void onCallEnd(Call call);
+    }
+
+    /**
+     * A single step of a call, e.g. opening the connection or reading the response body.
+     */
+    public static class Phase {
+        private final String name;
+        private final long durationNanos;
+        private final long bytes;
+
+        Phase(final String name, final long durationNanos, final long bytes) {
+            this.name = name;
+            this.durationNanos = durationNanos;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return number of bytes written or read in this phase, -1 if no data was transferred
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            final String duration = String.format("%s %.3fms", name, durationNanos / 1e6);
+            return bytes < 0 ? duration : duration + " (" + bytes + " bytes)";
+        }
+    }
+
+    /**
+     * All phases of one API call, including the polls of asynchronous operations.
+     */
+    public class Call {
+        private final String method;
+        private final String template;
+        private final long startNanos = System.nanoTime();
+        private final List<Phase> phases = new ArrayList<Phase>();
+        private long durationNanos = -1;
+        private long waitNanos;
+
+        Call(final String method, final String template) {
+            this.method = method;
+            this.template = template;
+        }
+
+        /**
+         * Records a phase that started at the given time and ends now.
+         * @param name name of the phase
+         * @param phaseStartNanos value of System.nanoTime() when the phase started
+         * @param bytes number of bytes transferred in this phase, -1 if none
+         */
+        void phase(final String name, final long phaseStartNanos, final long bytes) {
+            final Phase phase = new Phase(name, System.nanoTime() - phaseStartNanos, bytes);
+            synchronized (this) {
+                phases.add(phase);
+                if (WAIT_PHASE.equals(name)) {
+                    waitNanos += phase.durationNanos;
+                }
+            }
+            for (final Listener listener : listeners) {
+                listener.onPhase(this, phase);
+            }
+        }
+
+        void phase(final String name, final long phaseStartNanos) {
+            phase(name, phaseStartNanos, -1);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return path of the endpoint with ids replaced by placeholders, e.g. "/cloudrecognition/targetCollection/{id}"
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        public synchronized List<Phase> getPhases() {
+            return new ArrayList<Phase>(phases);
+        }
+
+        /**
+         * @return duration of the complete call, -1 while the call is running
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return duration of the complete call without the waits between the polls of asynchronous operations,
+         *      -1 while the call is running
+         */
+        public synchronized long getActiveNanos() {
+            return durationNanos < 0 ? -1 : durationNanos - waitNanos;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%s %s %.3fms", method, template, durationNanos / 1e6));
+            for (final Phase phase : getPhases()) {
+                sb.append("\n  ").append(phase);
+            }
+            return sb.toString();
+        }
+    }
+
+    // path segments that are followed by an id
+    private static final Set<String> ID_PARENTS = new HashSet<String>(Arrays.asList(
+            "targetCollection", "objectTargetCollection", "target", "targets", "cloudarchive", "wto", "heatmap"));
+    private static final String ID_PLACEHOLDER = "{id}";
+    // name of the phases that wait between the polls of asynchronous operations, they don't make a call slow
+    static final String WAIT_PHASE = "wait";
+
+    private static final long DEFAULT_SLOW_CALL_THRESHOLD = 30000;
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    // the most recent slow calls, oldest entry is overwritten first
+    private final Call[] slowCalls;
+    private int nextSlowCall;
+    private volatile long slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_CALL_THRESHOLD);
+    private volatile PrintStream dumpStream;
+
+    /**
+     * Creates a recorder that keeps the most recent slow calls.
+     */
+    public CallRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a recorder that keeps the given number of the most recent slow calls.
+     *
+     * @param capacity
+     *            The number of slow calls to keep
+     */
+    public CallRecorder(final int capacity) {
+        this.slowCalls = new Call[capacity];
+    }
+
+    /**
+     * @param threshold latency in milliseconds from which on calls are recorded as slow, the waits between the polls
+     *      of asynchronous operations are not counted
+     */
+    public void setSlowCallThreshold(final long threshold) {
+        this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+    }
+
+    /**
+     * @param dumpStream stream the breakdown of each slow call is written to, e.g. System.err, null to only keep
+     *      them in the buffer, which is the default
+     */
+    public void setDumpStream(final PrintStream dumpStream) {
+        this.dumpStream = dumpStream;
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the most recent slow calls, oldest first
+     */
+    public synchronized List<Call> getSlowCalls() {
+        final List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < slowCalls.length; i++) {
+            final Call call = slowCalls[(nextSlowCall + i) % slowCalls.length];
+            if (call != null) {
+                calls.add(call);
+            }
+        }
+        return Collections.unmodifiableList(calls);
+    }
+
+    Call begin(final String method, final String path) {
+        return new Call(method, toTemplate(path));
+    }
+
+    void end(final Call call) {
+        call.durationNanos = System.nanoTime() - call.startNanos;
+        for (final Listener listener : listeners) {
+            listener.onCallEnd(call);
+        }
+
+        if (call.getActiveNanos() >= slowCallThresholdNanos && slowCalls.length > 0) {
+            synchronized (this) {
+                slowCalls[nextSlowCall] = call;
+                nextSlowCall = (nextSlowCall + 1) % slowCalls.length;
+            }
+            final PrintStream stream = dumpStream;
+            if (stream != null) {
+                stream.println("slow call: " + call);
+            }
+        }
+    }
+
+    /**
+     * @param path path of a request
+     * @return true if the path addresses a single resource by its id, e.g. a target, rather than a listing
+     */
+    static boolean isSingleResource(final String path) {
+        return toTemplate(path).endsWith(ID_PLACEHOLDER);
+    }
+
+    /**
+     * Replaces the ids in the given path by placeholders, so calls to the same endpoint can be grouped.
+     * @param path path of a request, e.g. "/cloudrecognition/targetCollection/5a1b/target/7c2d"
+     * @return the template of the path, e.g. "/cloudrecognition/targetCollection/{id}/target/{id}"
+     */
+    static String toTemplate(final String path) {
+        final int query = path.indexOf('?');
+        final String[] segments = (query < 0 ? path : path.substring(0, query)).split("/", -1);
+        for (int i = 1; i < segments.length; i++) {
+            if (ID_PARENTS.contains(segments[i - 1]) && !segments[i].isEmpty()) {
+                segments[i] = ID_PLACEHOLDER;
+            }
+        }
+
+        final StringBuilder template = new StringBuilder(segments[0]);
+        for (int i = 1; i < segments.length; i++) {
+            template.append('/').append(segments[i]);
+        }
+        return template.toString();
+    }
+}
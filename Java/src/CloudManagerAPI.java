@@ -9,17 +9,35 @@
  *
  */
 
-import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -81,6 +99,25 @@ public class CloudManagerAPI {
 
     }
 
+    /**
+     * Is notified after target collections or targets were changed successfully through this API object,
+     * e.g. to keep a local copy of them up to date.
+     */
+    public interface MutationListener {
+        void onTargetCollectionChanged(JSONObject targetCollection);
+
+        void onTargetCollectionDeleted(String tcId);
+
+        void onTargetChanged(String tcId, String targetId, JSONObject target);
+
+        void onTargetDeleted(String tcId, String targetId);
+
+        /**
+         * Called after a batch of targets was added, the response of the service does not contain the created targets.
+         */
+        void onTargetsAdded(String tcId, JSONArray targets);
+    }
+
     // The endpoint where the Wikitude Cloud Targets API resides.
     // *********************************************************************
     // ***************************** IMPORTANT *****************************
@@ -123,22 +160,186 @@ public class CloudManagerAPI {
 
     private static final String PATH_GENERATE_HEATMAP = "/cloudrecognition/heatmap";
 
+    private static final String PARAM_OFFSET = "offset";
+    private static final String PARAM_LIMIT = "limit";
+
     private static final String HEADER_KEY_TOKEN = "X-Token";
     private static final String HEADER_KEY_VERSION = "X-Version";
 
     private static final String STATUS_COMPLETED = "COMPLETED";
 
+    private static final Logger LOGGER = Logger.getLogger(CloudManagerAPI.class.getName());
+
+    // runs the attempts of hedged requests, so the caller can wait for whichever responds first
+    private static final ExecutorService HEDGE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "CloudManagerAPI-hedge");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     // The token to use when connecting to the endpoint
     private final String token;
     // The version of the API we will use
     private final int version;
     // interval used to poll status of asynchronous operations
     private final int pollInterval;
+    // chooses the endpoint each request is sent to
+    private final EndpointRouter router;
+    // open connections ahead of time to avoid connect and handshake latency on first use, one per endpoint
+    private final List<ConnectionWarmer> warmers = new ArrayList<ConnectionWarmer>();
+    // records the phases of each call and keeps the breakdown of slow calls
+    private final CallRecorder recorder = new CallRecorder();
+    // notified after successful changes of target collections and targets
+    private final List<MutationListener> mutationListeners = new CopyOnWriteArrayList<MutationListener>();
+    // notifies every listener, a failing listener is logged and neither affects the others nor the API call
+    private final MutationListener mutationDispatcher = new MutationListener() {
+        @Override
+        public void onTargetCollectionChanged(final JSONObject targetCollection) {
+            for (final MutationListener listener : mutationListeners) {
+                try {
+                    listener.onTargetCollectionChanged(targetCollection);
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
+                }
+            }
+        }
+
+        @Override
+        public void onTargetCollectionDeleted(final String tcId) {
+            for (final MutationListener listener : mutationListeners) {
+                try {
+                    listener.onTargetCollectionDeleted(tcId);
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
+                }
+            }
+        }
+
+        @Override
+        public void onTargetChanged(final String tcId, final String targetId, final JSONObject target) {
+            for (final MutationListener listener : mutationListeners) {
+                try {
+                    listener.onTargetChanged(tcId, targetId, target);
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
+                }
+            }
+        }
+
+        @Override
+        public void onTargetDeleted(final String tcId, final String targetId) {
+            for (final MutationListener listener : mutationListeners) {
+                try {
+                    listener.onTargetDeleted(tcId, targetId);
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
+                }
+            }
+        }
+
+        @Override
+        public void onTargetsAdded(final String tcId, final JSONArray targets) {
+            for (final MutationListener listener : mutationListeners) {
+                try {
+                    listener.onTargetsAdded(tcId, targets);
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
+                }
+            }
+        }
+    };
+
+    // decides when reads are sent twice, null if reads are not hedged
+    private volatile HedgingPolicy hedgingPolicy;
 
     private enum Method {
         GET, POST, DELETE
     }
 
+    /**
+     * One of the requests of a hedged read, cancelled by closing its connection. Like other requests it is repeated
+     * at another endpoint in case the endpoint fails.
+     */
+    private class HedgedAttempt implements Callable<String> {
+        private final CallRecorder.Call call;
+        private final String path;
+        private final long startNanos = System.nanoTime();
+        // endpoint the request is currently sent to
+        private volatile EndpointRouter.Endpoint endpoint;
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        HedgedAttempt(final CallRecorder.Call call, final EndpointRouter.Endpoint endpoint, final String path) {
+            this.call = call;
+            this.endpoint = endpoint;
+            this.path = path;
+        }
+
+        @Override
+        public String call() throws Exception {
+            final Set<EndpointRouter.Endpoint> failed = new HashSet<EndpointRouter.Endpoint>();
+            boolean success;
+            HttpURLConnection connection;
+            while (true) {
+                final EndpointRouter.Endpoint endpoint = this.endpoint;
+                final long start = System.nanoTime();
+                try {
+                    connection = openConnection(call, new URL(endpoint.getRoot() + path), Method.GET, null);
+                    this.connection = connection;
+                    if (cancelled) {
+                        connection.disconnect();
+                        throw new InterruptedIOException("hedged request cancelled");
+                    }
+                    success = isResponseSuccess(call, connection);
+                } catch (IOException e) {
+                    if (cancelled) {
+                        throw e;
+                    }
+                    router.recordFailure(endpoint);
+                    failed.add(endpoint);
+                    final EndpointRouter.Endpoint next = router.select(failed);
+                    if (next == null) {
+                        throw e;
+                    }
+                    this.endpoint = next;
+                    continue;
+                }
+
+                if (!recordResponse(endpoint, connection, start) && !cancelled) {
+                    failed.add(endpoint);
+                    final EndpointRouter.Endpoint next = router.select(failed);
+                    if (next != null) {
+                        // the endpoint is unavailable, e.g. a gateway error of a proxy, another one may answer
+                        closeStream(connection.getErrorStream());
+                        this.endpoint = next;
+                        continue;
+                    }
+                }
+                break;
+            }
+            if (!success) {
+                throw readAPIException(call, connection);
+            }
+
+            if (!hasJsonContent(connection)) {
+                discardInput(connection);
+                return null;
+            }
+            return readInput(call, connection);
+        }
+
+        void cancel() {
+            cancelled = true;
+            final HttpURLConnection connection = this.connection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
     /**
      * Creates a new TargetsAPI object that offers the service to interact with
      * the Wikitude Cloud Targets API.
@@ -164,9 +365,184 @@ public class CloudManagerAPI {
      *            The interval for polling asynchronous endpoints
      */
     public CloudManagerAPI(String token, int version, int pollInterval) {
+        this(token, version, pollInterval, API_ENDPOINT_ROOT);
+    }
+
+    /**
+     * Creates a new TargetsAPI object that offers the service to interact with
+     * the Wikitude Cloud Targets API at the given endpoint, e.g. a proxy or a local stand-in.
+     *
+     * @param token
+     *            The token to use when connecting to the endpoint
+     * @param version
+     *            The version of the API we will use
+     * @param pollInterval
+     *            The interval for polling asynchronous endpoints
+     * @param endpointRoot
+     *            The endpoint to send requests to, e.g. "https://api.wikitude.com"
+     */
+    public CloudManagerAPI(String token, int version, int pollInterval, String endpointRoot) {
+        this(token, version, pollInterval, Collections.singletonList(endpointRoot));
+    }
+
+    /**
+     * Creates a new TargetsAPI object that offers the service to interact with
+     * the Wikitude Cloud Targets API at several equivalent endpoints. Each request
+     * is sent to the healthy endpoint with the lowest recent latency and fails
+     * over to the other endpoints, see {@link EndpointRouter}.
+     *
+     * @param token
+     *            The token to use when connecting to the endpoint
+     * @param version
+     *            The version of the API we will use
+     * @param pollInterval
+     *            The interval for polling asynchronous endpoints
+     * @param endpointRoots
+     *            The endpoints to send requests to, e.g. regional endpoints or proxies
+     */
+    public CloudManagerAPI(String token, int version, int pollInterval, List<String> endpointRoots) {
         this.token = token;
         this.version = version;
         this.pollInterval = pollInterval;
+        this.router = new EndpointRouter(endpointRoots);
+        for (final String endpointRoot : endpointRoots) {
+            this.warmers.add(new ConnectionWarmer(endpointRoot));
+        }
+    }
+
+    /**
+     * @return the version of the API this object uses
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return the router that chooses the endpoint of each request, e.g. to inspect latency and health of the endpoints
+     */
+    public EndpointRouter getEndpointRouter() {
+        return this.router;
+    }
+
+    /**
+     * Resolves the endpoints and opens connections to them ahead of time, so the first API calls don't pay for
+     * DNS lookup, TCP connect and TLS handshake. The latency of the warm requests is the first measurement of
+     * each endpoint.
+     * @param connections number of connections to open per endpoint, at most "http.maxConnections" (default 5)
+     *      are kept open
+     * @return the timings of the warm up of the endpoint that is preferred afterwards, including the latency of a
+     *      cold and a warm request
+     * @throws IOException thrown in case no endpoint could be reached
+     * @throws InterruptedException thrown in case the warm up is interrupted
+     */
+    public ConnectionWarmer.Report warmUp(final int connections) throws IOException, InterruptedException {
+        final List<EndpointRouter.Endpoint> endpoints = router.getEndpoints();
+        final List<ConnectionWarmer.Report> reports = new ArrayList<ConnectionWarmer.Report>();
+        IOException failure = null;
+        for (int i = 0; i < endpoints.size(); i++) {
+            try {
+                final ConnectionWarmer.Report report = warmers.get(i).warmUp(connections);
+                router.recordResponse(endpoints.get(i), TimeUnit.MILLISECONDS.toNanos(report.getWarmRequestMillis()));
+                reports.add(report);
+            } catch (IOException e) {
+                router.recordFailure(endpoints.get(i));
+                reports.add(null);
+                failure = failure == null ? e : failure;
+            }
+        }
+
+        final ConnectionWarmer.Report preferred = reports.get(endpoints.indexOf(router.select(Collections.<EndpointRouter.Endpoint>emptySet())));
+        if (preferred == null) {
+            throw failure;
+        }
+        return preferred;
+    }
+
+    /**
+     * Keeps connections to the endpoint open during idle periods by sending cheap requests in the background.
+     * The timings of the requests are passed to the router as latency samples of the endpoints.
+     * @param connections number of connections to keep open
+     * @param interval interval in milliseconds between two rounds of requests, should be lower than the
+     *      keep-alive timeout of the connections
+     */
+    public void startKeepWarm(final int connections, final long interval) {
+        final List<EndpointRouter.Endpoint> endpoints = router.getEndpoints();
+        for (int i = 0; i < endpoints.size(); i++) {
+            final EndpointRouter.Endpoint endpoint = endpoints.get(i);
+            warmers.get(i).startKeepWarm(connections, interval, new ConnectionWarmer.KeepWarmListener() {
+                @Override
+                public void onRound(final List<Long> requestMillis) {
+                    for (final Long millis : requestMillis) {
+                        router.recordResponse(endpoint, TimeUnit.MILLISECONDS.toNanos(millis));
+                    }
+                }
+
+                @Override
+                public void onRoundFailed(final IOException e) {
+                    router.recordFailure(endpoint);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops keeping connections open in the background.
+     */
+    public void stopKeepWarm() {
+        for (final ConnectionWarmer warmer : warmers) {
+            warmer.stopKeepWarm();
+        }
+    }
+
+    /**
+     * The recorder receives the timing of each phase of every call (opening the connection, writing the payload,
+     * waiting for the response code, reading the body and each poll of asynchronous operations). Calls slower than
+     * its threshold, not counting the waits between polls, are kept in a ring buffer and their breakdown can be
+     * dumped, see {@link CallRecorder#setSlowCallThreshold(long)} and {@link CallRecorder#setDumpStream(java.io.PrintStream)}.
+     * @return the recorder of this API object
+     */
+    public CallRecorder getCallRecorder() {
+        return this.recorder;
+    }
+
+    /**
+     * Enables hedging of reads: a GET request that is slower than a percentile of the recent requests is sent a
+     * second time on another connection, the first response is used and the other request is cancelled.
+     * Polls of asynchronous operations are not hedged.
+     * @param policy the policy that decides when a request is sent twice and keeps the metrics of hedging,
+     *      null to disable hedging
+     */
+    public void setHedgingPolicy(final HedgingPolicy policy) {
+        this.hedgingPolicy = policy;
+    }
+
+    /**
+     * @return the hedging policy, null if reads are not hedged
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return this.hedgingPolicy;
+    }
+
+    /**
+     * Registers a listener that is notified after each successful change of a target collection or target made
+     * through this API object. Listeners are called on the thread of the API call, after the response arrived;
+     * exceptions thrown by a listener are logged and do not fail the call.
+     * @param listener listener to notify
+     */
+    public void addMutationListener(final MutationListener listener) {
+        mutationListeners.add(listener);
+    }
+
+    /**
+     * Stops notifying the given listener.
+     * @param listener listener that was registered by {@link #addMutationListener(MutationListener)}
+     */
+    public void removeMutationListener(final MutationListener listener) {
+        mutationListeners.remove(listener);
+    }
+
+    private static void logListenerFailure(final MutationListener listener, final RuntimeException e) {
+        LOGGER.log(Level.WARNING, "mutation listener " + listener + " failed", e);
     }
 
     /**
@@ -181,8 +557,10 @@ public class CloudManagerAPI {
         final JSONObject tcJSONObject = new JSONObject();
         tcJSONObject.put("name", tcName);
         final String response = sendRequest(Method.POST, PATH_ADD_TC, tcJSONObject);
+        final JSONObject targetCollection = new JSONObject(response);
+        mutationDispatcher.onTargetCollectionChanged(targetCollection);
 
-        return new JSONObject(response);
+        return targetCollection;
     }
 
     /**
@@ -198,6 +576,16 @@ public class CloudManagerAPI {
         return new JSONArray(response);
     }
 
+    /**
+     * Retrieve all created and active target collections page by page. The next page is loaded in the background
+     * while the current one is processed.
+     * @param pageSize maximal number of target collections per page
+     * @return cursor over the pages of target collections, to be closed in case not all pages are read
+     */
+    public ListingCursor listTargetCollections(final int pageSize) {
+        return this.listPages(PATH_ADD_TC, pageSize);
+    }
+
     /**
      * Rename existing target collection
      * @param tcId id of target collection
@@ -213,7 +601,9 @@ public class CloudManagerAPI {
 
         final String path = PATH_GET_TC.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8"));
         final String responseString = this.sendRequest(Method.POST, path, tcJSONObject);
-        return new JSONObject(responseString);
+        final JSONObject targetCollection = new JSONObject(responseString);
+        mutationDispatcher.onTargetCollectionChanged(targetCollection);
+        return targetCollection;
     }
 
     /**
@@ -242,6 +632,7 @@ public class CloudManagerAPI {
     public boolean deleteTargetCollection(final String tcId) throws IOException, JSONException, APIException {
         final String path = PATH_GET_TC.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8"));
         this.sendRequest(Method.DELETE, path);
+        mutationDispatcher.onTargetCollectionDeleted(tcId);
 
         return true;
     }
@@ -261,6 +652,20 @@ public class CloudManagerAPI {
         return new JSONArray(responseString);
     }
 
+    /**
+     * Receive target collection's target images page by page. The next page is loaded in the background
+     * while the current one is processed.
+     * @param tcId id of target collection
+     * @param pageSize maximal number of targets per page
+     * @return cursor over the pages of targets, to be closed in case not all pages are read
+     * @throws UnsupportedEncodingException in case utf-8 encoder is not possible in your JRE
+     */
+    public ListingCursor listTargets(final String tcId, final int pageSize) throws UnsupportedEncodingException {
+        final String path = PATH_ADD_TARGET.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8"));
+
+        return this.listPages(path, pageSize);
+    }
+
     /**
      * adds a target to an existing target collection
      * @param tcId id of target collection
@@ -273,8 +678,10 @@ public class CloudManagerAPI {
     public JSONObject addTarget(final String tcId, final JSONObject target) throws IOException, JSONException, APIException {
         final String path = PATH_ADD_TARGET.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8"));
         final String responseString = this.sendRequest(Method.POST, path, target);
+        final JSONObject createdTarget = new JSONObject(responseString);
+        mutationDispatcher.onTargetChanged(tcId, createdTarget.getString("id"), createdTarget);
 
-        return new JSONObject(responseString);
+        return createdTarget;
     }
 
     /**
@@ -291,8 +698,10 @@ public class CloudManagerAPI {
      */
     public JSONObject addTargets(final String tcId, final JSONArray targets) throws IOException, JSONException, APIException, InterruptedException {
         final String path = PATH_ADD_TARGETS.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8"));
+        final JSONObject status = this.sendAsyncRequest(Method.POST, path, targets);
+        mutationDispatcher.onTargetsAdded(tcId, targets);
 
-        return this.sendAsyncRequest(Method.POST, path, targets);
+        return status;
     }
 
     /**
@@ -328,8 +737,10 @@ public class CloudManagerAPI {
     public JSONObject updateTarget(final String tcId, final String targetId, final JSONObject target) throws IOException, JSONException, APIException {
         final String path = PATH_GET_TARGET.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8")).replace(PLACEHOLDER_TARGET_ID, URLEncoder.encode(targetId, "UTF-8"));
         final String responseString = this.sendRequest(Method.POST, path, target);
+        final JSONObject updatedTarget = new JSONObject(responseString);
+        mutationDispatcher.onTargetChanged(tcId, targetId, updatedTarget);
 
-        return new JSONObject(responseString);
+        return updatedTarget;
     }
 
     /**
@@ -346,6 +757,7 @@ public class CloudManagerAPI {
     public boolean deleteTarget(final String tcId, final String targetId) throws IOException, JSONException, APIException {
         final String requestUrl = PATH_GET_TARGET.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8")).replace(PLACEHOLDER_TARGET_ID, URLEncoder.encode(targetId, "UTF-8"));
         this.sendRequest(Method.DELETE, requestUrl);
+        mutationDispatcher.onTargetDeleted(tcId, targetId);
 
         return true;
     }
@@ -436,6 +848,20 @@ public class CloudManagerAPI {
         return new JSONArray(response);
     }
 
+    /**
+     * Request all Object Targets of an Object Target Collection page by page. The next page is loaded in the
+     * background while the current one is processed.
+     * @param tcId The id of target collection.
+     * @param pageSize maximal number of Object Targets per page
+     * @return cursor over the pages of Object Targets, to be closed in case not all pages are read
+     * @throws UnsupportedEncodingException in case utf-8 encoder is not possible in your JRE
+     */
+    public ListingCursor listObjectTargets(final String tcId, final int pageSize) throws UnsupportedEncodingException {
+        final String path = PATH_GET_ALL_OBJECT_TARGETS.replace(PLACEHOLDER_TC_ID, URLEncoder.encode(tcId, "UTF-8"));
+
+        return this.listPages(path, pageSize);
+    }
+
     /**
      * Retrieves information status about a particular scheduled Object Target creation.
      * @param tcId The id of target collection.
@@ -604,6 +1030,28 @@ public class CloudManagerAPI {
         return this.sendAsyncRequest(Method.POST, path, tcJSONObject);
     }
 
+    /**
+     * Generates heatmaps for many images concurrently, see {@link BatchHeatmapGenerator}.
+     * Results are cached in the given directory by image content and API version, so images that were
+     * already processed are returned without contacting the service.
+     * @param imageUrls The paths to the images of which heatmaps should be created.
+     * @param cacheDirectory The directory where generated heatmaps are cached.
+     * @param maxConcurrentGenerations The maximal number of heatmaps that are generated at the same time.
+     * @return the completed heatmap generation job objects, keyed by image url
+     * @throws IOException thrown in case of network problems or if the cache could not be accessed
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case polling is interrupted
+     */
+    public Map<String, JSONObject> generateHeatmaps(final Collection<String> imageUrls, final File cacheDirectory, final int maxConcurrentGenerations) throws IOException, JSONException, APIException, InterruptedException {
+        final BatchHeatmapGenerator generator = new BatchHeatmapGenerator(this, cacheDirectory, maxConcurrentGenerations);
+        try {
+            return generator.generateHeatmaps(imageUrls);
+        } finally {
+            generator.shutdown();
+        }
+    }
+
     /**
      * HELPER method to send request to the Wikitude Cloud Targets API.
      *
@@ -628,38 +1076,169 @@ public class CloudManagerAPI {
      *
      */
     private <TPayload> String sendRequest(final Method method, final String path, final TPayload payload) throws IOException, JSONException, APIException {
-        HttpURLConnection connection = sendAPIRequest(method, path, payload);
-        String response = null;
+        final CallRecorder.Call call = recorder.begin(method.toString(), path);
+        try {
+            final HedgingPolicy policy = this.hedgingPolicy;
+            if (method == Method.GET && policy != null) {
+                return sendHedgedRequest(call, path, policy);
+            }
 
-        if (hasJsonContent(connection)) {
-            response = readInput(connection);
-        }
+            HttpURLConnection connection = sendAPIRequest(call, method, path, payload);
+            String response = null;
 
-        return response;
+            if (hasJsonContent(connection)) {
+                response = readInput(call, connection);
+            } else {
+                discardInput(connection);
+            }
+
+            return response;
+        } finally {
+            recorder.end(call);
+        }
     }
 
     private String sendRequest(final Method method, final String path) throws IOException, JSONException, APIException {
         return sendRequest(method, path, null);
     }
 
-    private <TPayload> HttpURLConnection sendAPIRequest(final Method method, final String path, final TPayload payload) throws IOException, JSONException, APIException {
-        URL url = new URL(API_ENDPOINT_ROOT + path);
+    private <TPayload> HttpURLConnection sendAPIRequest(final CallRecorder.Call call, final Method method, final String path, final TPayload payload) throws IOException, JSONException, APIException {
+        return sendAPIRequest(call, null, method, path, payload);
+    }
 
-        HttpURLConnection connection = openConnection(url, method);
+    /**
+     * Sends the request to the given endpoint, or to the one chosen by the router. Requests that fail before they
+     * were sent are repeated at another endpoint, GET and DELETE requests also when they fail afterwards.
+     * @param pinned endpoint the request has to be sent to, null to let the router choose and fail over
+     */
+    private <TPayload> HttpURLConnection sendAPIRequest(final CallRecorder.Call call, final EndpointRouter.Endpoint pinned, final Method method, final String path, final TPayload payload) throws IOException, JSONException, APIException {
+        final Set<EndpointRouter.Endpoint> failed = new HashSet<EndpointRouter.Endpoint>();
+        HttpURLConnection connection;
+        boolean success;
+
+        // encode the JSON body, if set, into the reusable buffer of this thread
+        final IOBuffers body = payload != null ? IOBuffers.acquire() : null;
+        try {
+            if (body != null) {
+                body.encode(payload.toString());
+            }
 
-        // append JSON body, if set
-        if (payload != null) {
-            writePayload(connection, payload.toString());
+            while (true) {
+                final EndpointRouter.Endpoint endpoint = pinned != null ? pinned : router.select(failed);
+                final long start = System.nanoTime();
+                boolean connected = false;
+                try {
+                    connection = openConnection(call, new URL(endpoint.getRoot() + path), method, body);
+                    connected = true;
+
+                    // append JSON body, if set
+                    if (body != null) {
+                        writePayload(call, connection, body);
+                    }
+                    success = isResponseSuccess(call, connection);
+                } catch (IOException e) {
+                    router.recordFailure(endpoint);
+                    failed.add(endpoint);
+                    if (pinned != null || (connected && method == Method.POST) || router.select(failed) == null) {
+                        throw e;
+                    }
+                    continue;
+                }
+
+                if (!recordResponse(endpoint, connection, start) && pinned == null && method != Method.POST) {
+                    failed.add(endpoint);
+                    if (router.select(failed) != null) {
+                        // the endpoint is unavailable, e.g. a gateway error of a proxy, another one may answer
+                        closeStream(connection.getErrorStream());
+                        continue;
+                    }
+                }
+                break;
+            }
+        } finally {
+            if (body != null) {
+                body.release();
+            }
         }
 
-        if (isResponseSuccess(connection)) {
+        if (success) {
             return connection;
         } else {
-            throw readAPIException(connection);
+            throw readAPIException(call, connection);
         }
     }
 
-    private HttpURLConnection openConnection(final URL url, final Method method) throws IOException {
+    /**
+     * Passes the latency of a response to the router, server errors count as failure of the endpoint. Only reads
+     * of single resources are latency samples, listings and writes take as long as their work does.
+     * @return true if the endpoint is considered available
+     */
+    private boolean recordResponse(final EndpointRouter.Endpoint endpoint, final HttpURLConnection connection, final long start) throws IOException {
+        if (connection.getResponseCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            router.recordFailure(endpoint);
+            return false;
+        }
+        if (Method.GET.toString().equals(connection.getRequestMethod()) && CallRecorder.isSingleResource(connection.getURL().getPath())) {
+            router.recordResponse(endpoint, System.nanoTime() - start);
+        } else {
+            router.recordSuccess(endpoint);
+        }
+        return true;
+    }
+
+    private String sendHedgedRequest(final CallRecorder.Call call, final String path, final HedgingPolicy policy) throws IOException, JSONException, APIException {
+        final CompletionService<String> completion = new ExecutorCompletionService<String>(HEDGE_EXECUTOR);
+        final HedgedAttempt primary = new HedgedAttempt(call, router.select(Collections.<EndpointRouter.Endpoint>emptySet()), path);
+        final Future<String> primaryFuture = completion.submit(primary);
+        HedgedAttempt hedge = null;
+        Future<String> hedgeFuture = null;
+        Future<String> winner = null;
+        try {
+            final long delay = policy.getHedgeDelayNanos();
+            Future<String> done = delay < 0 ? null : completion.poll(delay, TimeUnit.NANOSECONDS);
+            if (done == null && delay >= 0 && policy.tryHedge()) {
+                call.phase("hedge", primary.startNanos);
+                // prefer another endpoint, the one of the first request may be the slow part
+                final EndpointRouter.Endpoint other = router.select(Collections.singleton(primary.endpoint));
+                hedge = new HedgedAttempt(call, other != null ? other : primary.endpoint, path);
+                hedgeFuture = completion.submit(hedge);
+            }
+            if (done == null) {
+                done = completion.take();
+            }
+
+            String response;
+            try {
+                response = Futures.await(done);
+            } catch (IOException e) {
+                if (hedge == null) {
+                    throw e;
+                }
+                // the other request may still succeed
+                done = completion.take();
+                response = Futures.await(done);
+            }
+            winner = done;
+
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for hedged request");
+        } finally {
+            // only the loser is cancelled, closing a finished connection would drop it from the keep-alive cache
+            if (!primaryFuture.isDone()) {
+                primary.cancel();
+            }
+            if (hedgeFuture != null && !hedgeFuture.isDone()) {
+                hedge.cancel();
+            }
+            // a cancelled first request took at least until now, which keeps the percentile from drifting down
+            policy.record(System.nanoTime() - primary.startNanos, hedge != null, winner != null && winner == hedgeFuture);
+        }
+    }
+
+    private HttpURLConnection openConnection(final CallRecorder.Call call, final URL url, final Method method, final IOBuffers body) throws IOException {
+        final long start = System.nanoTime();
         // open the connection
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
@@ -672,24 +1251,31 @@ public class CloudManagerAPI {
         // set the request headers
         connection.setRequestProperty(HEADER_KEY_TOKEN, token);
         connection.setRequestProperty(HEADER_KEY_VERSION, "" + version);
+        if (body != null) {
+            connection.setRequestProperty("Content-Type", "application/json");
+            // sets Content-Length and streams the body instead of copying it into an internal buffer
+            connection.setFixedLengthStreamingMode(body.length());
+        }
+
+        // connect explicitly, so connect and handshake are not attributed to the following phases
+        connection.connect();
+        call.phase("openConnection", start);
 
         return connection;
     }
 
-    private void writePayload(HttpURLConnection connection, final String payload) throws IOException {
-        OutputStreamWriter writer = null;
+    private void writePayload(final CallRecorder.Call call, HttpURLConnection connection, final IOBuffers payload) throws IOException {
+        final long start = System.nanoTime();
+        OutputStream out = null;
         try {
-            final String contentLength = String.valueOf(payload.length());
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Content-Length", contentLength);
-
-            // construct the writer and write request
-            writer = new OutputStreamWriter(connection.getOutputStream());
-            writer.write(payload);
-            writer.flush();
+            // write request
+            out = connection.getOutputStream();
+            payload.writeTo(out);
+            out.flush();
         } finally {
-            closeStream(writer);
+            closeStream(out);
         }
+        call.phase("writePayload", start, payload.length());
     }
 
     private void closeStream(Closeable closeable) {
@@ -702,40 +1288,53 @@ public class CloudManagerAPI {
         }
     }
 
-    private boolean isResponseSuccess(HttpURLConnection connection) throws IOException {
+    /**
+     * Closes the body of a response that is not read, e.g. a non JSON body of a proxy. Closing consumes what is
+     * left of the body, so the connection returns to the keep-alive cache instead of staying open unused.
+     */
+    private void discardInput(HttpURLConnection connection) {
+        try {
+            closeStream(connection.getInputStream());
+        } catch (IOException e) {
+            // the connection is not reused then
+        }
+    }
+
+    private boolean isResponseSuccess(final CallRecorder.Call call, HttpURLConnection connection) throws IOException {
+        final long start = System.nanoTime();
         int statusCode = connection.getResponseCode();
+        call.phase("getResponseCode", start);
 
         return statusCode == HttpsURLConnection.HTTP_OK || statusCode == HttpsURLConnection.HTTP_ACCEPTED || statusCode == HttpURLConnection.HTTP_NO_CONTENT;
     }
 
-    private String readInput(HttpURLConnection connection) throws IOException {
-        return readBody(connection.getInputStream());
+    private String readInput(final CallRecorder.Call call, HttpURLConnection connection) throws IOException {
+        return readBody(call, connection.getInputStream());
     }
 
-    private String readBody(InputStream inputStream) throws IOException {
-        BufferedReader reader = null;
+    private String readBody(final CallRecorder.Call call, InputStream inputStream) throws IOException {
+        final long start = System.nanoTime();
+        // read the server response into the reusable buffer of this thread and decode it at once
+        final IOBuffers buffer = IOBuffers.acquire();
         String response = null;
+        int length = 0;
         try {
-            // listen on the server response
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            // construct the server response and return
-            StringBuilder sb = new StringBuilder();
-            for (String line; (line = reader.readLine()) != null; ) {
-                sb.append(line);
-            }
-            response = sb.toString();
+            length = buffer.readFrom(inputStream);
+            response = buffer.decode();
         } finally {
-            closeStream(reader);
+            closeStream(inputStream);
+            buffer.release();
         }
+        call.phase("readBody", start, length);
 
         return response;
     }
 
-    private APIException readAPIException(HttpURLConnection connection) throws IOException, JSONException {
+    private APIException readAPIException(final CallRecorder.Call call, HttpURLConnection connection) throws IOException, JSONException {
         if (hasJsonContent(connection)) {
-            return readServiceException(connection);
+            return readServiceException(call, connection);
         } else {
-            return readGeneralError(connection);
+            return readGeneralError(call, connection);
         }
     }
 
@@ -746,8 +1345,8 @@ public class CloudManagerAPI {
         return "application/json".equals(contentType) && !"0".equals(contentLength);
     }
 
-    private APIException readServiceException(HttpURLConnection connection) throws IOException, JSONException {
-        final String strError = readError(connection);
+    private APIException readServiceException(final CallRecorder.Call call, HttpURLConnection connection) throws IOException, JSONException {
+        final String strError = readError(call, connection);
         final JSONObject error = new JSONObject(strError);
         final int code = error.getInt("code");
         final String reason = error.getString("reason");
@@ -756,12 +1355,12 @@ public class CloudManagerAPI {
         return new ServiceException(message, code, reason);
     }
 
-    private String readError(HttpURLConnection connection) throws IOException {
-        return readBody(connection.getErrorStream());
+    private String readError(final CallRecorder.Call call, HttpURLConnection connection) throws IOException {
+        return readBody(call, connection.getErrorStream());
     }
 
-    private APIException readGeneralError(HttpURLConnection connection) throws IOException, JSONException {
-        final String message = readError(connection);
+    private APIException readGeneralError(final CallRecorder.Call call, HttpURLConnection connection) throws IOException, JSONException {
+        final String message = readError(call, connection);
         int code = connection.getResponseCode();
 
         return new APIException(message, code);
@@ -772,45 +1371,77 @@ public class CloudManagerAPI {
     }
 
     private <TPayload> JSONObject sendAsyncRequest(final Method method, final String path, final TPayload payload) throws IOException, JSONException, APIException, InterruptedException {
-        final HttpURLConnection connection = sendAPIRequest(method, path, payload);
-        final String location = getLocation(connection);
-        int initialDelay = pollInterval;
+        final CallRecorder.Call call = recorder.begin(method.toString(), path);
+        try {
+            final HttpURLConnection connection = sendAPIRequest(call, method, path, payload);
+            // the job is only known to the endpoint that accepted it
+            final EndpointRouter.Endpoint endpoint = router.endpointOf(connection.getURL());
+            final String location = getLocation(connection);
+            int initialDelay = pollInterval;
+
+            if (hasJsonContent(connection)) {
+                final JSONObject status = readJsonObjectBody(call, connection);
+                initialDelay = status.getInt("estimatedLatency");
+            } else {
+                discardInput(connection);
+            }
+            wait(call, initialDelay);
 
-        if (hasJsonContent(connection)) {
-            final JSONObject status = readJsonObjectBody(connection);
-            initialDelay = status.getInt("estimatedLatency");
+            return pollStatus(call, endpoint, location);
+        } finally {
+            recorder.end(call);
         }
-        wait(initialDelay);
+    }
+
+    private ListingCursor listPages(final String path, final int pageSize) {
+        return new ListingCursor(new ListingCursor.PageLoader() {
+            @Override
+            public JSONArray load(final int offset, final int limit) throws IOException, JSONException, APIException {
+                final String pagePath = path + "?" + PARAM_OFFSET + "=" + offset + "&" + PARAM_LIMIT + "=" + limit;
+                final String response = sendRequest(Method.GET, pagePath);
+
+                return response == null ? new JSONArray() : new JSONArray(response);
+            }
+
+            @Override
+            public JSONArray loadAll() throws IOException, JSONException, APIException {
+                final String response = sendRequest(Method.GET, path);
 
-        return pollStatus(location);
+                return response == null ? new JSONArray() : new JSONArray(response);
+            }
+        }, pageSize);
     }
 
     private String getLocation(HttpURLConnection connection) {
         return connection.getHeaderField("Location");
     }
 
-    private void wait(int milliseconds) throws InterruptedException {
+    private void wait(final CallRecorder.Call call, int milliseconds) throws InterruptedException {
+        final long start = System.nanoTime();
         Thread.sleep(milliseconds);
+        call.phase(CallRecorder.WAIT_PHASE, start);
     }
 
-    private JSONObject pollStatus(final String location) throws InterruptedException, APIException, IOException, JSONException {
+    private JSONObject pollStatus(final CallRecorder.Call call, final EndpointRouter.Endpoint endpoint, final String location) throws InterruptedException, APIException, IOException, JSONException {
         while (true) {
-            final JSONObject status = readStatus(location);
+            final long start = System.nanoTime();
+            final JSONObject status = readStatus(call, endpoint, location);
+            call.phase("pollStatus", start);
             if (isCompleted(status)) {
                 return status;
             }
-            wait(pollInterval);
+            wait(call, pollInterval);
         }
     }
 
-    private JSONObject readStatus(final String location) throws JSONException, APIException, IOException {
-        HttpURLConnection connection = sendAPIRequest(Method.GET, location, null);
+    private JSONObject readStatus(final CallRecorder.Call call, final EndpointRouter.Endpoint endpoint, final String location) throws JSONException, APIException, IOException {
+        HttpURLConnection connection = sendAPIRequest(call, endpoint, Method.GET, location, null);
 
-        return readJsonObjectBody(connection);
+        return readJsonObjectBody(call, connection);
     }
 
-    private JSONObject readJsonObjectBody(final HttpURLConnection connection) throws IOException, JSONException {
-        final String body = readInput(connection);
+    private JSONObject readJsonObjectBody(final CallRecorder.Call call, final HttpURLConnection connection) throws IOException, JSONException {
+        final String body = readInput(call, connection);
 
         return new JSONObject(body);
     }
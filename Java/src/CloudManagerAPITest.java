@@ -33,6 +33,10 @@ public class CloudManagerAPITest {
             // create the object
             final CloudManagerAPI api = new CloudManagerAPI(API_TOKEN, API_VERSION);
 
+            // open connections ahead of time, so the following calls don't pay for connect and handshake
+            final ConnectionWarmer.Report warmUpReport = api.warmUp(2);
+            System.out.println("Warmed up connections: " + warmUpReport);
+
             // create an empty targetCollection
             final JSONObject createdTargetCollection = api.createTargetCollection("myFirstTc");
 
@@ -0,0 +1,405 @@
+/**
+ * ConformanceStubServer is a local stand-in for the target collection
+ * endpoints of the Wikitude Cloud Targets API. It keeps everything in memory
+ * and counts the requests, polls and bytes each client sends.
+ *
+ * The server runs on the HTTP server that ships with the JDK
+ * (com.sun.net.httpserver), which keeps connections alive and decodes
+ * chunked request bodies.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ConformanceStubServer implements Closeable {
+
+    /**
+     * Traffic of one client run.
+     */
+    public static class Metrics {
+        private int requests;
+        private int polls;
+        private long bytesReceived;
+        private long bytesSent;
+        private long firstRequestNanos;
+        private long lastResponseNanos;
+        // number of requests per method and endpoint template, e.g. "GET /cloudrecognition/targetCollection/{id}"
+        private final Map<String, Integer> requestsByEndpoint = new LinkedHashMap<String, Integer>();
+
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return number of status requests of asynchronous operations
+         */
+        public int getPolls() {
+            return polls;
+        }
+
+        /**
+         * @return bytes of the request lines, headers and bodies
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * @return bytes of the status lines, headers and bodies
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * @return time from the first request until the last response, in milliseconds
+         */
+        public long getActiveMillis() {
+            return requests == 0 ? 0 : (lastResponseNanos - firstRequestNanos) / 1000000;
+        }
+
+        public Map<String, Integer> getRequestsByEndpoint() {
+            return requestsByEndpoint;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // length of the line break and of the separator between name and value of a header
+    private static final int CRLF_LENGTH = 2;
+    private static final int HEADER_SEPARATOR_LENGTH = 2;
+    // length of the "Date" header the server adds to each response
+    private static final int DATE_HEADER_LENGTH = "Date: Thu, 01 Jan 1970 00:00:00 GMT".length() + CRLF_LENGTH;
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final int NO_BODY = -1;
+    private static final String PROPERTY_NO_DELAY = "sun.net.httpserver.nodelay";
+
+    private static final Pattern PATH_TCS = Pattern.compile("/cloudrecognition/targetCollection/?");
+    private static final Pattern PATH_TC = Pattern.compile("/cloudrecognition/targetCollection/([^/]+)");
+    private static final Pattern PATH_TARGETS = Pattern.compile("/cloudrecognition/targetCollection/([^/]+)/targets?");
+    private static final Pattern PATH_TARGET = Pattern.compile("/cloudrecognition/targetCollection/([^/]+)/target/([^/]+)");
+    private static final Pattern PATH_GENERATE = Pattern.compile("/cloudrecognition/targetCollection/([^/]+)/generation/cloudarchive");
+    private static final Pattern PATH_PROJECTS = Pattern.compile("/cloudrecognition/projects/?");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // how long asynchronous operations take, sent to the clients as "estimatedLatency"
+    private final int jobLatency;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, JSONObject> targetCollections = new LinkedHashMap<String, JSONObject>();
+    private final Map<String, Map<String, JSONObject>> targets = new HashMap<String, Map<String, JSONObject>>();
+    // asynchronous operations keyed by their status location, value is the time they complete
+    private final Map<String, Long> jobs = new HashMap<String, Long>();
+    private Metrics metrics = new Metrics();
+
+    /**
+     * Starts the server on a free port of the loopback interface.
+     *
+     * @param jobLatency
+     *            The time in milliseconds asynchronous operations take until they are completed
+     * @throws IOException thrown in case the server socket could not be opened
+     */
+    public ConformanceStubServer(final int jobLatency) throws IOException {
+        this.jobLatency = jobLatency;
+        // the server writes the headers and the body of a response separately, without TCP_NODELAY the body waits
+        // for the delayed acknowledgement of the headers. Only read once, before the first server is created.
+        if (System.getProperty(PROPERTY_NO_DELAY) == null) {
+            System.setProperty(PROPERTY_NO_DELAY, "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 50);
+        // one thread per concurrent request, e.g. of hedged reads or connections that are kept warm
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "ConformanceStubServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the endpoint root to pass to the clients, e.g. "http://127.0.0.1:54321"
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the traffic since the previous call and starts counting anew.
+     * @return the traffic of the last client run
+     */
+    public synchronized Metrics takeMetrics() {
+        final Metrics taken = metrics;
+        metrics = new Metrics();
+        return taken;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        final String method = exchange.getRequestMethod();
+        // the query, e.g. offset and limit of listings, is ignored
+        final String path = exchange.getRequestURI().getRawPath();
+        final byte[] requestBody = readFully(exchange.getRequestBody());
+
+        Response response;
+        boolean poll = false;
+        synchronized (this) {
+            poll = "GET".equals(method) && jobs.containsKey(path);
+            try {
+                response = poll ? status(path) : route(method, path, new String(requestBody, UTF_8));
+            } catch (JSONException e) {
+                response = error(400, "BadRequest", e.getMessage());
+            }
+        }
+
+        final byte[] responseBody = response.body == null ? new byte[0] : response.body.getBytes(UTF_8);
+        // responses to HEAD and 204 responses have no body
+        final boolean bodyless = "HEAD".equals(method) || response.body == null;
+        final Headers headers = exchange.getResponseHeaders();
+        if (response.body != null) {
+            headers.set("Content-Type", CONTENT_TYPE_JSON);
+        }
+        if (response.location != null) {
+            headers.set("Location", response.location);
+        }
+        if ("HEAD".equals(method)) {
+            // a response to HEAD announces the length of the body, but has none
+            headers.set("Content-Length", String.valueOf(responseBody.length));
+        }
+
+        // recorded before responding, so the metrics are complete once the client sees the response
+        synchronized (this) {
+            if (metrics.requests == 0) {
+                metrics.firstRequestNanos = start;
+            }
+            metrics.requests++;
+            if (poll) {
+                metrics.polls++;
+            }
+            metrics.bytesReceived += headLength(method + " " + exchange.getRequestURI().toASCIIString() + " " + exchange.getProtocol(), exchange.getRequestHeaders()) + requestBody.length;
+            metrics.bytesSent += headLength("HTTP/1.1 " + response.status + " " + (response.status < 300 ? "OK" : "Error"), headers)
+                    + DATE_HEADER_LENGTH + (bodyless ? 0 : ("Content-Length: " + responseBody.length).length() + CRLF_LENGTH + responseBody.length);
+            metrics.lastResponseNanos = System.nanoTime();
+            final String endpoint = method + " " + CallRecorder.toTemplate(path);
+            final Integer count = metrics.requestsByEndpoint.get(endpoint);
+            metrics.requestsByEndpoint.put(endpoint, count == null ? 1 : count + 1);
+        }
+
+        exchange.sendResponseHeaders(response.status, bodyless ? NO_BODY : responseBody.length);
+        if (!bodyless) {
+            final OutputStream out = exchange.getResponseBody();
+            out.write(responseBody);
+            out.close();
+        }
+    }
+
+    private Response route(final String method, final String path, final String body) throws JSONException {
+        Matcher m;
+        if (PATH_TCS.matcher(path).matches()) {
+            if ("POST".equals(method)) {
+                final JSONObject tc = new JSONObject(body);
+                final String tcId = nextId();
+                tc.put("id", tcId);
+                targetCollections.put(tcId, tc);
+                targets.put(tcId, new LinkedHashMap<String, JSONObject>());
+                return ok(tc.toString());
+            }
+            return ok(new JSONArray(targetCollections.values()).toString());
+        }
+        if ((m = PATH_TC.matcher(path)).matches()) {
+            final String tcId = m.group(1);
+            final JSONObject tc = targetCollections.get(tcId);
+            if (tc == null) {
+                return notFound(path);
+            }
+            if ("DELETE".equals(method)) {
+                targetCollections.remove(tcId);
+                targets.remove(tcId);
+                return new Response(204, null, null);
+            }
+            if ("POST".equals(method)) {
+                tc.put("name", new JSONObject(body).getString("name"));
+            }
+            return ok(tc.toString());
+        }
+        if ((m = PATH_TARGETS.matcher(path)).matches()) {
+            final Map<String, JSONObject> tcTargets = targets.get(m.group(1));
+            if (tcTargets == null) {
+                return notFound(path);
+            }
+            if ("GET".equals(method)) {
+                return ok(new JSONArray(tcTargets.values()).toString());
+            }
+            if (path.endsWith("/target")) {
+                return ok(addTarget(tcTargets, new JSONObject(body)).toString());
+            }
+            final JSONArray added = new JSONArray(body);
+            for (int i = 0; i < added.length(); i++) {
+                addTarget(tcTargets, added.getJSONObject(i));
+            }
+            return startJob(path);
+        }
+        if ((m = PATH_TARGET.matcher(path)).matches()) {
+            final Map<String, JSONObject> tcTargets = targets.get(m.group(1));
+            final JSONObject target = tcTargets == null ? null : tcTargets.get(m.group(2));
+            if (target == null) {
+                return notFound(path);
+            }
+            if ("DELETE".equals(method)) {
+                tcTargets.remove(m.group(2));
+                return new Response(204, null, null);
+            }
+            if ("POST".equals(method)) {
+                final JSONObject changes = new JSONObject(body);
+                final String[] keys = JSONObject.getNames(changes);
+                for (int i = 0; keys != null && i < keys.length; i++) {
+                    target.put(keys[i], changes.get(keys[i]));
+                }
+            }
+            return ok(target.toString());
+        }
+        if ((m = PATH_GENERATE.matcher(path)).matches() && "POST".equals(method)) {
+            if (!targetCollections.containsKey(m.group(1))) {
+                return notFound(path);
+            }
+            return startJob(path);
+        }
+        if (PATH_PROJECTS.matcher(path).matches() && "GET".equals(method)) {
+            return ok("[]");
+        }
+
+        return notFound(path);
+    }
+
+    private JSONObject addTarget(final Map<String, JSONObject> tcTargets, final JSONObject target) throws JSONException {
+        final String targetId = nextId();
+        target.put("id", targetId);
+        tcTargets.put(targetId, target);
+        return target;
+    }
+
+    private Response startJob(final String path) throws JSONException {
+        final String location = path + "/" + nextId();
+        jobs.put(location, System.currentTimeMillis() + jobLatency);
+
+        final JSONObject status = new JSONObject();
+        status.put("status", "PROCESSING");
+        status.put("estimatedLatency", jobLatency);
+        return new Response(202, status.toString(), location);
+    }
+
+    private Response status(final String location) throws JSONException {
+        final boolean completed = System.currentTimeMillis() >= jobs.get(location);
+        final JSONObject status = new JSONObject();
+        status.put("status", completed ? "COMPLETED" : "PROCESSING");
+        if (!completed) {
+            status.put("estimatedLatency", Math.max(0, jobs.get(location) - System.currentTimeMillis()));
+        }
+        return ok(status.toString());
+    }
+
+    private String nextId() {
+        return Long.toHexString(ids.incrementAndGet()) + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static Response ok(final String body) {
+        return new Response(200, body, null);
+    }
+
+    private static Response notFound(final String path) {
+        return error(404, "NotFound", "No resource at " + path);
+    }
+
+    private static Response error(final int status, final String reason, final String message) {
+        final String error = "{\"code\":" + status + ",\"reason\":" + JSONObject.quote(reason) + ",\"message\":" + JSONObject.quote(message) + "}";
+        return new Response(status, error, null);
+    }
+
+    /**
+     * @return length of the first line and the header lines as sent on the wire, including the empty line after them
+     */
+    private static long headLength(final String firstLine, final Headers headers) {
+        long length = firstLine.length() + CRLF_LENGTH;
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (final String value : header.getValue()) {
+                length += header.getKey().length() + HEADER_SEPARATOR_LENGTH + value.length() + CRLF_LENGTH;
+            }
+        }
+        return length + CRLF_LENGTH;
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try {
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                body.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return body.toByteArray();
+    }
+
+    private static class Response {
+        private final int status;
+        private final String body;
+        private final String location;
+
+        Response(final int status, final String body, final String location) {
+            this.status = status;
+            this.body = body;
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * ConformanceSuite runs the same workload through each client of this
+ * repository against a local {@link ConformanceStubServer} and compares their
+ * traffic with the one of the Java client, which acts as reference.
+ *
+ * Usage: java ConformanceSuite [path-to-repository-root]
+ *
+ * Clients whose interpreter (python3, node, ruby, php) is not installed are
+ * skipped. A client is flagged if it sends more requests to an endpoint or
+ * polls more often than the reference.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class ConformanceSuite {
+
+    private static final String API_TOKEN = "conformance-token";
+    private static final int API_VERSION = 3;
+    // short intervals keep the suite fast, the ratio between them is what matters
+    private static final int POLL_INTERVAL = 100;
+    private static final int JOB_LATENCY = 300;
+    private static final long CLIENT_TIMEOUT = 120000;
+    private static final String SKIPPED = "skipped";
+
+    /**
+     * A client of another language, run as a separate process.
+     */
+    private static class ExternalClient {
+        private final String name;
+        private final String directory;
+        private final String[] command;
+
+        ExternalClient(final String name, final String directory, final String... command) {
+            this.name = name;
+            this.directory = directory;
+            this.command = command;
+        }
+    }
+
+    private static final ExternalClient[] EXTERNAL_CLIENTS = {
+            // -B keeps the run from leaving __pycache__ behind in the repository
+            new ExternalClient("Python", "Python", "python3", "-B", "ManagerAPIConformance.py"),
+            new ExternalClient("NodeJs", "NodeJs", "node", "ManagerAPIConformance.js"),
+            new ExternalClient("Ruby", "Ruby", "ruby", "ManagerApiConformance.rb"),
+            new ExternalClient("PHP", "PHP", "php", "ManagerApiConformance.php")
+    };
+
+    public static void main(String args[]) throws Exception {
+        final File repositoryRoot = new File(args.length > 0 ? args[0] : "..");
+        final ConformanceStubServer server = new ConformanceStubServer(JOB_LATENCY);
+        boolean conforming = true;
+
+        try {
+            final String endpoint = server.getEndpoint();
+            System.out.println("Stub server listening at " + endpoint);
+
+            long start = System.nanoTime();
+            runReference(endpoint);
+            final ConformanceStubServer.Metrics reference = server.takeMetrics();
+            print("Java (reference)", reference, elapsedMillis(start));
+
+            for (final ExternalClient client : EXTERNAL_CLIENTS) {
+                start = System.nanoTime();
+                final String failure = runExternal(repositoryRoot, client, endpoint);
+                final ConformanceStubServer.Metrics metrics = server.takeMetrics();
+                final long wallMillis = elapsedMillis(start);
+
+                if (failure != null) {
+                    System.out.println("\n" + client.name + ": " + failure);
+                    conforming &= failure.startsWith(SKIPPED);
+                    continue;
+                }
+                print(client.name, metrics, wallMillis);
+                conforming &= compare(reference, metrics);
+            }
+        } finally {
+            server.close();
+        }
+
+        System.exit(conforming ? 0 : 1);
+    }
+
+    /**
+     * The workload every client runs, see ManagerAPIConformance.* in the directories of the other languages.
+     */
+    private static void runReference(final String endpoint) throws Exception {
+        final CloudManagerAPI api = new CloudManagerAPI(API_TOKEN, API_VERSION, POLL_INTERVAL, endpoint);
+
+        final String tcId = api.createTargetCollection("conformance").getString("id");
+
+        final JSONArray targets = new JSONArray();
+        for (int i = 1; i <= 2; i++) {
+            final JSONObject target = new JSONObject();
+            target.put("name", "target_" + i);
+            target.put("imageUrl", "http://s3-eu-west-1.amazonaws.com/web-api-hosting/examples_data/surfer.jpeg");
+            targets.put(target);
+        }
+        api.addTargets(tcId, targets);
+        api.getAllTargets(tcId);
+        api.generateTargetCollection(tcId);
+        api.deleteTargetCollection(tcId);
+    }
+
+    /**
+     * @return null on success, the reason otherwise
+     */
+    private static String runExternal(final File repositoryRoot, final ExternalClient client, final String endpoint) throws InterruptedException {
+        final List<String> command = new ArrayList<String>(Arrays.asList(client.command));
+        command.add(endpoint);
+        command.add(String.valueOf(POLL_INTERVAL));
+
+        final Process process;
+        try {
+            process = new ProcessBuilder(command)
+                    .directory(new File(repositoryRoot, client.directory))
+                    .redirectErrorStream(true)
+                    .start();
+        } catch (IOException e) {
+            return SKIPPED + ", " + client.command[0] + " is not available";
+        }
+
+        final Timer watchdog = new Timer(true);
+        watchdog.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                process.destroy();
+            }
+        }, CLIENT_TIMEOUT);
+        try {
+            final String output = readFully(process.getInputStream());
+            final int exitCode = process.waitFor();
+            return exitCode == 0 ? null : "failed with exit code " + exitCode + "\n" + output;
+        } catch (IOException e) {
+            return "failed, " + e.getMessage();
+        } finally {
+            watchdog.cancel();
+        }
+    }
+
+    /**
+     * @return true if the client is at least as efficient as the reference
+     */
+    private static boolean compare(final ConformanceStubServer.Metrics reference, final ConformanceStubServer.Metrics metrics) {
+        boolean conforming = true;
+
+        for (final Map.Entry<String, Integer> entry : metrics.getRequestsByEndpoint().entrySet()) {
+            final Integer expected = reference.getRequestsByEndpoint().get(entry.getKey());
+            if (expected == null || entry.getValue() > expected) {
+                System.out.println(String.format("  FLAG redundant requests: %s sent %d times, reference %d", entry.getKey(), entry.getValue(), expected == null ? 0 : expected));
+                conforming = false;
+            }
+        }
+        if (metrics.getPolls() > reference.getPolls()) {
+            System.out.println(String.format("  FLAG inefficient polling: %d polls, reference %d", metrics.getPolls(), reference.getPolls()));
+            conforming = false;
+        }
+
+        return conforming;
+    }
+
+    private static void print(final String name, final ConformanceStubServer.Metrics metrics, final long wallMillis) {
+        System.out.println("\n" + name);
+        System.out.println(String.format("  requests: %d, polls: %d, bytes received: %d, bytes sent: %d, active: %dms, wall: %dms",
+                metrics.getRequests(), metrics.getPolls(), metrics.getBytesReceived(), metrics.getBytesSent(), metrics.getActiveMillis(), wallMillis));
+        for (final Map.Entry<String, Integer> entry : metrics.getRequestsByEndpoint().entrySet()) {
+            System.out.println(String.format("    %3d  %s", entry.getValue(), entry.getKey()));
+        }
+    }
+
+    private static String readFully(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[4096];
+            for (int read; (read = inputStream.read(buffer)) != -1; ) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return output.toString("UTF-8");
+    }
+
+    private static long elapsedMillis(final long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+}
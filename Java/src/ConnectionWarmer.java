@@ -0,0 +1,288 @@
+/**
+ * ConnectionWarmer opens connections to the Wikitude Cloud Targets API ahead
+ * of time, so the first API calls don't pay for DNS lookup, TCP connect and
+ * TLS handshake.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionWarmer {
+
+    /**
+     * Timings of a warm up, all values in milliseconds.
+     */
+    public static class Report {
+        private long resolveMillis;
+        private long coldRequestMillis;
+        private long warmRequestMillis;
+        private final List<Long> connectionMillis = new ArrayList<Long>();
+
+        /**
+         * @return time to resolve the host name of the endpoint
+         */
+        public long getResolveMillis() {
+            return resolveMillis;
+        }
+
+        /**
+         * @return time of the first request, including TCP connect and full TLS handshake
+         */
+        public long getColdRequestMillis() {
+            return coldRequestMillis;
+        }
+
+        /**
+         * @return time of a request on an already open connection
+         */
+        public long getWarmRequestMillis() {
+            return warmRequestMillis;
+        }
+
+        /**
+         * @return time it took to open each of the additional connections
+         */
+        public List<Long> getConnectionMillis() {
+            return connectionMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("resolve: %dms, cold request: %dms, warm request: %dms, connections: %s", resolveMillis, coldRequestMillis, warmRequestMillis, connectionMillis);
+        }
+    }
+
+    /**
+     * Receives the outcome of each round of keep-warm requests, e.g. to use the timings as latency samples.
+     */
+    public interface KeepWarmListener {
+        /**
+         * @param requestMillis time of each request of the round, on connections that were already open
+         */
+        void onRound(List<Long> requestMillis);
+
+        /**
+         * @param e the failure of a request of the round
+         */
+        void onRoundFailed(IOException e);
+    }
+
+    // requests to the root of the endpoint are cheap, need no token and keep the connection alive
+    private static final String WARM_UP_PATH = "/";
+    private static final String WARM_UP_METHOD = "HEAD";
+    private static final int BUFFER_SIZE = 512;
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "ConnectionWarmer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final String endpointRoot;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> keepWarm;
+    // sends the requests of the keep-warm rounds, one thread per connection
+    private ExecutorService keepWarmExecutor;
+
+    /**
+     * Creates a new warmer for the given endpoint.
+     *
+     * @param endpointRoot
+     *            The endpoint to connect to, e.g. "https://api.wikitude.com"
+     */
+    public ConnectionWarmer(final String endpointRoot) {
+        this.endpointRoot = endpointRoot;
+        this.scheduler = Executors.newScheduledThreadPool(1, DAEMON_THREADS);
+    }
+
+    /**
+     * Resolves the endpoint and opens the given number of connections to it. The connections are handed to the
+     * keep-alive cache of HttpURLConnection, so subsequent API calls reuse them. TLS sessions are cached by
+     * the JRE, so connections opened later on resume the session instead of doing a full handshake.
+     * Note: the JRE keeps at most "http.maxConnections" (default 5) idle connections per endpoint.
+     * @param connections number of connections to open
+     * @return the timings of the warm up
+     * @throws IOException thrown in case the endpoint could not be reached
+     * @throws InterruptedException thrown in case the warm up is interrupted
+     */
+    public Report warmUp(final int connections) throws IOException, InterruptedException {
+        final Report report = new Report();
+        final URL url = new URL(endpointRoot + WARM_UP_PATH);
+
+        long start = System.nanoTime();
+        InetAddress.getAllByName(url.getHost());
+        report.resolveMillis = elapsedMillis(start);
+
+        start = System.nanoTime();
+        request(url);
+        report.coldRequestMillis = elapsedMillis(start);
+
+        start = System.nanoTime();
+        request(url);
+        report.warmRequestMillis = elapsedMillis(start);
+
+        // the first connection is open already, the others have to be opened at the same time to get distinct sockets
+        report.connectionMillis.addAll(requestConcurrently(url, connections - 1));
+
+        return report;
+    }
+
+    /**
+     * Keeps the given number of connections open by sending a cheap request on each of them periodically.
+     * The interval should be lower than the keep-alive timeout of the endpoint.
+     * @param connections number of connections to keep open
+     * @param interval interval in milliseconds between two rounds of requests
+     */
+    public void startKeepWarm(final int connections, final long interval) {
+        startKeepWarm(connections, interval, null);
+    }
+
+    /**
+     * Keeps the given number of connections open by sending a cheap request on each of them periodically.
+     * The interval should be lower than the keep-alive timeout of the endpoint.
+     * @param connections number of connections to keep open
+     * @param interval interval in milliseconds between two rounds of requests
+     * @param listener receives the timings of each round, null if not needed
+     */
+    public synchronized void startKeepWarm(final int connections, final long interval, final KeepWarmListener listener) {
+        stopKeepWarm();
+        if (connections < 1) {
+            return;
+        }
+        // the threads are reused by all rounds until the keep-warm is stopped
+        final ExecutorService executor = Executors.newFixedThreadPool(connections, DAEMON_THREADS);
+        keepWarmExecutor = executor;
+        keepWarm = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<Long> timings = requestConcurrently(executor, new URL(endpointRoot + WARM_UP_PATH), connections);
+                    if (listener != null) {
+                        listener.onRound(timings);
+                    }
+                } catch (IOException e) {
+                    // try again with the next round
+                    if (listener != null) {
+                        listener.onRoundFailed(e);
+                    }
+                } catch (RejectedExecutionException e) {
+                    // stopped while the round started
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops keeping connections open, already open connections are closed once they time out.
+     */
+    public synchronized void stopKeepWarm() {
+        if (keepWarm != null) {
+            keepWarm.cancel(false);
+            keepWarm = null;
+        }
+        if (keepWarmExecutor != null) {
+            keepWarmExecutor.shutdownNow();
+            keepWarmExecutor = null;
+        }
+    }
+
+    private List<Long> requestConcurrently(final URL url, final int count) throws IOException, InterruptedException {
+        if (count < 1) {
+            return new ArrayList<Long>();
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(count, DAEMON_THREADS);
+        try {
+            return requestConcurrently(executor, url, count);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param executor executor with at least the given number of threads
+     */
+    private List<Long> requestConcurrently(final ExecutorService executor, final URL url, final int count) throws IOException, InterruptedException {
+        final List<Long> timings = new ArrayList<Long>();
+        final CountDownLatch ready = new CountDownLatch(count);
+        try {
+            final List<Future<Long>> requests = new ArrayList<Future<Long>>();
+            for (int i = 0; i < count; i++) {
+                requests.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        // start all requests together, otherwise they would reuse each others connections
+                        ready.countDown();
+                        ready.await();
+                        final long start = System.nanoTime();
+                        request(url);
+                        return elapsedMillis(start);
+                    }
+                }));
+            }
+            for (final Future<Long> request : requests) {
+                timings.add(request.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return timings;
+    }
+
+    private void request(final URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(WARM_UP_METHOD);
+        connection.setUseCaches(false);
+
+        // any status will do, but the body has to be consumed to return the connection to the keep-alive cache
+        final int status = connection.getResponseCode();
+        drain(status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream());
+    }
+
+    private void drain(final InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (inputStream.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static long elapsedMillis(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * ContentHash computes stable content hashes of images, e.g. to detect that
+ * the same image was already sent to the Wikitude Cloud Targets API.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class ContentHash {
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    /**
+     * Hash the content behind the given url, e.g. an image that is referenced by a target's "imageUrl"
+     * @param url http(s) or file url of the content
+     * @return lower case hex representation of the SHA-256 digest
+     * @throws IOException thrown in case content could not be read
+     */
+    public static String of(final String url) throws IOException {
+        return of(new URL(url).openStream());
+    }
+
+    /**
+     * Hash the content of a local file
+     * @param file file to hash
+     * @return lower case hex representation of the SHA-256 digest
+     * @throws IOException thrown in case file could not be read
+     */
+    public static String of(final File file) throws IOException {
+        return of(new FileInputStream(file));
+    }
+
+    /**
+     * Hash the remaining content of the given stream, the stream gets closed afterwards
+     * @param inputStream stream to hash
+     * @return lower case hex representation of the SHA-256 digest
+     * @throws IOException thrown in case stream could not be read
+     */
+    public static String of(final InputStream inputStream) throws IOException {
+        final MessageDigest digest = newDigest();
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read; (read = inputStream.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+
+        return new String(hex);
+    }
+}
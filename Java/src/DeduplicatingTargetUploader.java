@@ -0,0 +1,420 @@
+/**
+ * DeduplicatingTargetUploader adds targets to target collections, but skips
+ * images that already exist in the collection under another name.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class DeduplicatingTargetUploader {
+
+    /**
+     * Defines what happens to a target whose image already exists in the collection.
+     */
+    public enum DuplicatePolicy {
+        // the target is not uploaded
+        SKIP,
+        // the target is not uploaded, the existing target is returned in its place
+        REMAP
+    }
+
+    /**
+     * Counts of the uploads handled by a {@link DeduplicatingTargetUploader}.
+     */
+    public static class Report {
+        private int submitted;
+        private int uploaded;
+        private int avoided;
+        private int unchecked;
+        private final Map<String, String> duplicates = new LinkedHashMap<String, String>();
+
+        /**
+         * @return number of targets passed to the uploader
+         */
+        public int getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * @return number of targets that were sent to the service
+         */
+        public int getUploaded() {
+            return uploaded;
+        }
+
+        /**
+         * @return number of uploads that were avoided, because the image already existed
+         */
+        public int getAvoided() {
+            return avoided;
+        }
+
+        /**
+         * @return number of uploaded targets without a local image, whose content could not be checked
+         */
+        public int getUnchecked() {
+            return unchecked;
+        }
+
+        /**
+         * @return names of the skipped targets mapped to the id of the existing target with the same image,
+         *      or to the name of the target with the same image that was uploaded in the same batch
+         */
+        public Map<String, String> getDuplicates() {
+            return duplicates;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("submitted: %d, uploaded: %d (unchecked: %d), avoided: %d", submitted, uploaded, unchecked, avoided);
+        }
+    }
+
+    private static final String INDEX_FILE_EXTENSION = ".properties";
+    private static final String SCHEME_FILE = "file";
+    // page size of the listing that looks up the ids of uploaded targets
+    private static final int LOOKUP_PAGE_SIZE = 100;
+
+    private final CloudManagerAPI api;
+    // directory holding one content-hash to target-id index per target collection
+    private final File indexDirectory;
+    private final DuplicatePolicy policy;
+    private final Report report = new Report();
+    // indices that were already loaded, keyed by target collection id
+    private final Map<String, Properties> indices = new HashMap<String, Properties>();
+
+    /**
+     * Creates a new uploader on top of the given API object.
+     *
+     * @param api
+     *            The API object used to upload targets
+     * @param indexDirectory
+     *            The directory where the content hashes of uploaded images are persisted
+     * @param policy
+     *            Defines what happens to targets whose image already exists
+     */
+    public DeduplicatingTargetUploader(final CloudManagerAPI api, final File indexDirectory, final DuplicatePolicy policy) {
+        this.api = api;
+        this.indexDirectory = indexDirectory;
+        this.policy = policy;
+    }
+
+    /**
+     * adds a target to an existing target collection, unless its image already exists in the collection
+     * @param tcId id of target collection
+     * @param target JSON representation of target, e.g. {"name" : "foo", "imageUrl": "http://myserver.com/path/img.jpg"}
+     * @param localImage local copy of the target's image, may be null in case the "imageUrl" is a file url
+     * @return JSON representation of created target, of the existing target for {@link DuplicatePolicy#REMAP}
+     *      or null if the target was skipped
+     * @throws IOException thrown in case of network problems or if the image or index could not be read
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     */
+    public synchronized JSONObject addTarget(final String tcId, final JSONObject target, final File localImage) throws IOException, JSONException, CloudManagerAPI.APIException {
+        report.submitted++;
+        final String contentHash = hashImage(target, localImage);
+        final Properties index = getIndex(tcId);
+
+        if (contentHash != null) {
+            final String existingId = index.getProperty(contentHash);
+            if (existingId != null) {
+                final JSONObject existing = findExisting(tcId, existingId);
+                if (existing != null) {
+                    recordDuplicate(target.optString("name"), existingId);
+                    return policy == DuplicatePolicy.REMAP ? existing : null;
+                }
+                // the existing target is gone, upload the image again
+                index.remove(contentHash);
+            }
+        } else {
+            report.unchecked++;
+        }
+
+        final JSONObject created = api.addTarget(tcId, target);
+        report.uploaded++;
+        if (contentHash != null) {
+            index.setProperty(contentHash, created.getString("id"));
+            storeIndex(tcId, index);
+        }
+
+        return created;
+    }
+
+    /**
+     * adds multiple targets to an existing target collection, targets whose image already exists in the collection
+     * or which share their image with another target of the same call are left out. For {@link DuplicatePolicy#REMAP}
+     * the status contains "remapped", the names of the left out targets mapped to the JSON representation of the
+     * target that has their image. The ids of the uploaded targets are looked up by name and image url, targets
+     * without a name or whose id cannot be told apart from another target are uploaded but not indexed.
+     * @param tcId id of target collection
+     * @param targets JSON representation of targets, e.g. {"name" : "foo", "imageUrl": "http://myserver.com/path/img.jpg"}
+     * @param localImages local copies of the targets' images keyed by target name, targets without an entry are
+     *      only checked in case their "imageUrl" is a file url
+     * @return JSON representation of the status of the operation, null in case all targets were duplicates and the
+     *      policy is {@link DuplicatePolicy#SKIP}
+     * @throws IOException thrown in case of network problems or if an image or the index could not be read
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case polling is interrupted
+     */
+    public synchronized JSONObject addTargets(final String tcId, final JSONArray targets, final Map<String, File> localImages) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Properties index = getIndex(tcId);
+        final JSONArray uploads = new JSONArray();
+        // content hashes of the targets to upload, keyed by target name
+        final Map<String, String> uploadHashes = new HashMap<String, String>();
+        // content hashes of this call, to detect duplicates within the same batch
+        final Map<String, String> batchHashes = new HashMap<String, String>();
+        // names of the left out targets mapped to the existing target with their image, only for REMAP
+        final JSONObject remapped = new JSONObject();
+        // names of targets left out for a target of the same batch, mapped to the name of that target
+        final Map<String, String> batchDuplicates = new HashMap<String, String>();
+
+        for (int i = 0; i < targets.length(); i++) {
+            report.submitted++;
+            final JSONObject target = targets.getJSONObject(i);
+            final String name = target.optString("name");
+            final String contentHash = hashImage(target, localImages == null ? null : localImages.get(name));
+
+            if (contentHash == null) {
+                report.unchecked++;
+                uploads.put(target);
+                continue;
+            }
+
+            final String existingId = index.getProperty(contentHash);
+            if (existingId != null) {
+                final JSONObject existing = findExisting(tcId, existingId);
+                if (existing != null) {
+                    recordDuplicate(name, existingId);
+                    if (policy == DuplicatePolicy.REMAP) {
+                        remapped.put(name, existing);
+                    }
+                    continue;
+                }
+                // the existing target is gone, upload the image again
+                index.remove(contentHash);
+            }
+            if (batchHashes.containsKey(contentHash)) {
+                recordDuplicate(name, batchHashes.get(contentHash));
+                batchDuplicates.put(name, batchHashes.get(contentHash));
+                continue;
+            }
+            // the id of an unnamed target cannot be looked up, nor of a target whose name is already used in this call
+            if (!name.isEmpty() && !uploadHashes.containsKey(name)) {
+                batchHashes.put(contentHash, name);
+                uploadHashes.put(name, contentHash);
+            }
+            uploads.put(target);
+        }
+
+        if (uploads.length() == 0) {
+            return policy == DuplicatePolicy.REMAP ? new JSONObject().put("remapped", remapped) : null;
+        }
+
+        final JSONObject status = api.addTargets(tcId, uploads);
+        report.uploaded += uploads.length();
+
+        if (!uploadHashes.isEmpty()) {
+            // the status does not contain the ids of the created targets, look them up by name
+            final Map<String, JSONObject> created = findUploaded(tcId, uploads, uploadHashes.keySet(), index);
+            for (final Map.Entry<String, JSONObject> target : created.entrySet()) {
+                index.setProperty(uploadHashes.get(target.getKey()), target.getValue().getString("id"));
+                if (policy == DuplicatePolicy.REMAP) {
+                    for (final Map.Entry<String, String> duplicate : batchDuplicates.entrySet()) {
+                        if (duplicate.getValue().equals(target.getKey())) {
+                            remapped.put(duplicate.getKey(), target.getValue());
+                        }
+                    }
+                }
+            }
+            storeIndex(tcId, index);
+        }
+
+        if (policy == DuplicatePolicy.REMAP) {
+            status.put("remapped", remapped);
+        }
+        return status;
+    }
+
+    /**
+     * Delete existing target from a collection and from the index of known images
+     * @param tcId id of target collection
+     * @param targetId id of target
+     * @return true after successful deletion
+     * @throws IOException thrown in case of network problems or if the index could not be accessed
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     */
+    public synchronized boolean deleteTarget(final String tcId, final String targetId) throws IOException, JSONException, CloudManagerAPI.APIException {
+        final boolean deleted = api.deleteTarget(tcId, targetId);
+        final Properties index = getIndex(tcId);
+        if (index.values().removeAll(Collections.singleton(targetId))) {
+            storeIndex(tcId, index);
+        }
+
+        return deleted;
+    }
+
+    /**
+     * @return the counts of the uploads handled so far
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    /**
+     * Looks up the target an index entry points to, the entry is stale in case the target was deleted meanwhile.
+     * @return JSON representation of the target, null if it no longer exists
+     */
+    private JSONObject findExisting(final String tcId, final String existingId) throws IOException, JSONException, CloudManagerAPI.APIException {
+        try {
+            return api.getTarget(tcId, existingId);
+        } catch (CloudManagerAPI.APIException e) {
+            if (e.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the targets that were just uploaded page by page, until each of the given names was found. Targets
+     * of the collection that have the name and image url of an uploaded target but are already indexed are older
+     * targets. A name that still matches several targets is left out, its id cannot be told apart.
+     * @param uploads the uploaded targets
+     * @param names names of the uploaded targets whose id is needed
+     * @return the created targets keyed by name
+     */
+    private Map<String, JSONObject> findUploaded(final String tcId, final JSONArray uploads, final Set<String> names, final Properties index) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Map<String, String> imageUrls = new HashMap<String, String>();
+        for (int i = 0; i < uploads.length(); i++) {
+            final JSONObject upload = uploads.getJSONObject(i);
+            if (names.contains(upload.optString("name"))) {
+                imageUrls.put(upload.optString("name"), upload.optString("imageUrl"));
+            }
+        }
+        final Set<Object> indexedIds = new HashSet<Object>(index.values());
+
+        final Map<String, List<JSONObject>> candidates = new HashMap<String, List<JSONObject>>();
+        final ListingCursor cursor = api.listTargets(tcId, LOOKUP_PAGE_SIZE);
+        try {
+            while (candidates.size() < imageUrls.size() && cursor.hasNextPage()) {
+                final JSONArray page = cursor.nextPage();
+                for (int i = 0; i < page.length(); i++) {
+                    final JSONObject existing = page.getJSONObject(i);
+                    final String name = existing.optString("name");
+                    if (imageUrls.containsKey(name) && imageUrls.get(name).equals(existing.optString("imageUrl"))
+                            && !indexedIds.contains(existing.optString("id"))) {
+                        if (!candidates.containsKey(name)) {
+                            candidates.put(name, new ArrayList<JSONObject>());
+                        }
+                        candidates.get(name).add(existing);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final Map<String, JSONObject> created = new HashMap<String, JSONObject>();
+        for (final Map.Entry<String, List<JSONObject>> candidate : candidates.entrySet()) {
+            if (candidate.getValue().size() == 1) {
+                created.put(candidate.getKey(), candidate.getValue().get(0));
+            }
+        }
+        return created;
+    }
+
+    private void recordDuplicate(final String name, final String existingId) {
+        report.avoided++;
+        report.duplicates.put(name, existingId);
+    }
+
+    private String hashImage(final JSONObject target, final File localImage) throws IOException {
+        if (localImage != null) {
+            return ContentHash.of(localImage);
+        }
+
+        final String imageUrl = target.optString("imageUrl", null);
+        if (imageUrl == null) {
+            return null;
+        }
+        try {
+            final URI uri = new URI(imageUrl);
+            if (SCHEME_FILE.equalsIgnoreCase(uri.getScheme())) {
+                return ContentHash.of(new File(uri));
+            }
+        } catch (URISyntaxException e) {
+            // not a local image, cannot be checked
+        }
+
+        return null;
+    }
+
+    private Properties getIndex(final String tcId) throws IOException {
+        Properties index = indices.get(tcId);
+        if (index == null) {
+            index = new Properties();
+            final File indexFile = getIndexFile(tcId);
+            if (indexFile.isFile()) {
+                final InputStream in = new FileInputStream(indexFile);
+                try {
+                    index.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+            indices.put(tcId, index);
+        }
+
+        return index;
+    }
+
+    private void storeIndex(final String tcId, final Properties index) throws IOException {
+        if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs() && !indexDirectory.isDirectory()) {
+            throw new IOException("Unable to create index directory " + indexDirectory);
+        }
+        // replace the index atomically, so a crash never leaves a partially written index behind
+        final File indexFile = getIndexFile(tcId);
+        final File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexDirectory);
+        final OutputStream out = new FileOutputStream(tempFile);
+        try {
+            index.store(out, "content hash to target id of target collection " + tcId);
+        } finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getIndexFile(final String tcId) {
+        return new File(indexDirectory, tcId + INDEX_FILE_EXTENSION);
+    }
+}
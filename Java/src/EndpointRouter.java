@@ -0,0 +1,219 @@
+/**
+ * EndpointRouter chooses which of several equivalent endpoints of the
+ * Wikitude Cloud Targets API a request is sent to, e.g. regional endpoints
+ * or proxies.
+ *
+ * The latency of cheap requests, reads of single resources and the requests
+ * that keep connections warm, is measured passively and smoothed by an
+ * exponentially weighted moving average. Requests go to the healthy endpoint
+ * with the lowest average latency. An endpoint without a sample for a while
+ * is treated as unmeasured, so it gets probed again once it recovered. An
+ * endpoint that fails is skipped for a cool-down period that grows with each
+ * consecutive failure.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class EndpointRouter {
+
+    /**
+     * One endpoint and what is known about its health and latency.
+     */
+    public static class Endpoint {
+        private final String root;
+        // smoothed latency in nanoseconds, -1 until the first response
+        private double averageLatencyNanos = -1;
+        private long lastSampleNanos;
+        private int consecutiveFailures;
+        private long unavailableUntilNanos = System.nanoTime();
+        private long requests;
+        private long failures;
+
+        Endpoint(final String root) {
+            this.root = root;
+        }
+
+        /**
+         * @return the endpoint, e.g. "https://api.wikitude.com"
+         */
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return smoothed latency until the response code arrives in milliseconds, -1 if not measured yet
+         */
+        public synchronized double getLatencyMillis() {
+            return averageLatencyNanos < 0 ? -1 : averageLatencyNanos / 1e6;
+        }
+
+        /**
+         * @return false while the endpoint is skipped after a failure
+         */
+        public synchronized boolean isHealthy() {
+            return System.nanoTime() - unavailableUntilNanos >= 0;
+        }
+
+        /**
+         * @return number of requests sent to this endpoint
+         */
+        public synchronized long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return number of requests to this endpoint that failed
+         */
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %s, latency: %.1fms, requests: %d, failures: %d",
+                    root, isHealthy() ? "healthy" : "unavailable", getLatencyMillis(), requests, failures);
+        }
+    }
+
+    // weight of a new latency sample in the moving average
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long MIN_COOL_DOWN = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_COOL_DOWN = TimeUnit.SECONDS.toNanos(60);
+    // age after which the average of an endpoint no longer counts and the endpoint is probed again
+    private static final long STALE_AFTER = TimeUnit.SECONDS.toNanos(30);
+
+    private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+
+    /**
+     * Creates a new router.
+     *
+     * @param endpointRoots
+     *            The equivalent endpoints, e.g. "https://api.wikitude.com", in the order of preference while
+     *            their latency is unknown
+     */
+    public EndpointRouter(final Collection<String> endpointRoots) {
+        if (endpointRoots.isEmpty()) {
+            throw new IllegalArgumentException("at least one endpoint is required");
+        }
+        for (final String root : endpointRoots) {
+            endpoints.add(new Endpoint(root));
+        }
+    }
+
+    /**
+     * @return all endpoints in the configured order
+     */
+    public List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    @Override
+    public String toString() {
+        return endpoints.toString();
+    }
+
+    /**
+     * Chooses the healthy endpoint with the lowest latency. Endpoints without recent measurement are preferred, so
+     * each endpoint gets measured. If no endpoint is healthy, the one that becomes available first is chosen.
+     * @param excluded endpoints that must not be chosen, e.g. because they already failed for this request
+     * @return the chosen endpoint, null if all endpoints are excluded
+     */
+    Endpoint select(final Collection<Endpoint> excluded) {
+        Endpoint best = null;
+        double bestLatency = 0;
+        Endpoint firstAvailable = null;
+        long firstAvailableNanos = 0;
+        final long now = System.nanoTime();
+        for (final Endpoint endpoint : endpoints) {
+            if (excluded.contains(endpoint)) {
+                continue;
+            }
+            synchronized (endpoint) {
+                if (endpoint.isHealthy()) {
+                    final double latency = isStale(endpoint, now) ? -1 : endpoint.averageLatencyNanos;
+                    if (best == null || latency < bestLatency) {
+                        best = endpoint;
+                        bestLatency = latency;
+                    }
+                } else if (firstAvailable == null || endpoint.unavailableUntilNanos - firstAvailableNanos < 0) {
+                    firstAvailable = endpoint;
+                    firstAvailableNanos = endpoint.unavailableUntilNanos;
+                }
+            }
+        }
+
+        return best != null ? best : firstAvailable;
+    }
+
+    /**
+     * @param url url of a request
+     * @return the endpoint the url belongs to, null if it belongs to none
+     */
+    Endpoint endpointOf(final URL url) {
+        final String location = url.toString();
+        for (final Endpoint endpoint : endpoints) {
+            if (location.equals(endpoint.root) || location.startsWith(endpoint.root + "/")) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a response of the endpoint whose latency is a sample for the endpoint, e.g. of a cheap read.
+     * @param endpoint endpoint that responded
+     * @param latencyNanos time until the response code arrived
+     */
+    void recordResponse(final Endpoint endpoint, final long latencyNanos) {
+        synchronized (endpoint) {
+            final long now = System.nanoTime();
+            // a stale average says nothing about the endpoint anymore, start over
+            endpoint.averageLatencyNanos = endpoint.averageLatencyNanos < 0 || isStale(endpoint, now) ? latencyNanos
+                    : LATENCY_WEIGHT * latencyNanos + (1 - LATENCY_WEIGHT) * endpoint.averageLatencyNanos;
+            endpoint.lastSampleNanos = now;
+            recordSuccess(endpoint);
+        }
+    }
+
+    /**
+     * Records a response of the endpoint whose latency depends on the work of the request, e.g. a listing or
+     * a write, rather than on the endpoint.
+     * @param endpoint endpoint that responded
+     */
+    void recordSuccess(final Endpoint endpoint) {
+        synchronized (endpoint) {
+            endpoint.requests++;
+            endpoint.consecutiveFailures = 0;
+            endpoint.unavailableUntilNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records a failed request, the endpoint is skipped for a while.
+     * @param endpoint endpoint that failed
+     */
+    void recordFailure(final Endpoint endpoint) {
+        synchronized (endpoint) {
+            endpoint.requests++;
+            endpoint.failures++;
+            endpoint.consecutiveFailures++;
+            final long coolDown = Math.min(MAX_COOL_DOWN, MIN_COOL_DOWN << Math.min(endpoint.consecutiveFailures - 1, 16));
+            endpoint.unavailableUntilNanos = System.nanoTime() + coolDown;
+        }
+    }
+
+    private static boolean isStale(final Endpoint endpoint, final long now) {
+        return endpoint.averageLatencyNanos >= 0 && now - endpoint.lastSampleNanos > STALE_AFTER;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Futures waits for the results of API calls that run on another thread and
+ * rethrows their failures as the exceptions of the calls themselves.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.json.JSONException;
+
+final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Waits for the result of the given future.
+     * @param future future of an API call
+     * @return the result of the call
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting or the call itself is interrupted
+     */
+    static <T> T await(final Future<T> future) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            } else if (cause instanceof CloudManagerAPI.APIException) {
+                throw (CloudManagerAPI.APIException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * HedgingPolicy decides when a read of the Wikitude Cloud Targets API is sent
+ * a second time, to cut the latency of the rare slow responses.
+ *
+ * A duplicate request is sent once the first one takes longer than a
+ * percentile of the recent latencies, as long as the duplicates stay within
+ * a budget relative to the number of requests. The first response is used,
+ * the other request is cancelled. See
+ * {@link CloudManagerAPI#setHedgingPolicy(HedgingPolicy)}.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.util.Arrays;
+
+public class HedgingPolicy {
+
+    // number of latencies needed before the percentile is trusted
+    private static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final double budgetPercent;
+
+    // latencies of the most recent requests, oldest entry is overwritten first
+    private final long[] latencies;
+    // whether each of the most recent requests was hedged, in the same order as the latencies
+    private final boolean[] hedged;
+    private int next;
+    private int samples;
+    private int hedgesInWindow;
+    private int hedgesInFlight;
+
+    private long requests;
+    private long hedges;
+    private long hedgeWins;
+
+    /**
+     * Creates a new policy.
+     *
+     * @param percentile
+     *            The percentile of the recent latencies after which a duplicate request is sent, e.g. 95
+     * @param budgetPercent
+     *            The maximal number of duplicate requests in percent of the recent requests, e.g. 5
+     * @param windowSize
+     *            The number of recent requests the percentile and the budget are based on
+     */
+    public HedgingPolicy(final double percentile, final double budgetPercent, final int windowSize) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100]");
+        }
+        if (budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent must be in [0, 100]");
+        }
+        if (windowSize < MIN_SAMPLES) {
+            throw new IllegalArgumentException("windowSize must be at least " + MIN_SAMPLES);
+        }
+        this.percentile = percentile;
+        this.budgetPercent = budgetPercent;
+        this.latencies = new long[windowSize];
+        this.hedged = new boolean[windowSize];
+    }
+
+    /**
+     * @return number of requests the policy was applied to
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of duplicate requests that were sent
+     */
+    public synchronized long getHedges() {
+        return hedges;
+    }
+
+    /**
+     * @return number of duplicate requests whose response arrived first
+     */
+    public synchronized long getHedgeWins() {
+        return hedgeWins;
+    }
+
+    /**
+     * @return share of the requests that were hedged, between 0 and 1
+     */
+    public synchronized double getHedgeRate() {
+        return requests == 0 ? 0 : (double) hedges / requests;
+    }
+
+    /**
+     * @return share of the duplicate requests whose response arrived first, between 0 and 1
+     */
+    public synchronized double getWinRate() {
+        return hedges == 0 ? 0 : (double) hedgeWins / hedges;
+    }
+
+    /**
+     * @return current delay in milliseconds after which a duplicate request is sent, -1 while there are too few samples
+     */
+    public double getHedgeDelayMillis() {
+        final long delay = getHedgeDelayNanos();
+        return delay < 0 ? -1 : delay / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("requests: %d, hedges: %d (%.1f%%), hedge wins: %d (%.1f%%), delay: %.1fms",
+                requests, hedges, getHedgeRate() * 100, hedgeWins, getWinRate() * 100, getHedgeDelayMillis());
+    }
+
+    /**
+     * @return delay in nanoseconds after which a duplicate request is sent, -1 while there are too few samples
+     */
+    synchronized long getHedgeDelayNanos() {
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        final long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+
+        return sorted[Math.max(0, Math.min(samples - 1, index))];
+    }
+
+    /**
+     * Reserves a duplicate request within the budget.
+     * @return true if a duplicate request may be sent
+     */
+    synchronized boolean tryHedge() {
+        // the request about to be hedged counts as part of the window
+        if ((hedgesInWindow + hedgesInFlight + 1) * 100.0 > budgetPercent * (samples + 1)) {
+            return false;
+        }
+        hedgesInFlight++;
+        hedges++;
+        return true;
+    }
+
+    /**
+     * Records a finished request.
+     * @param latencyNanos latency of the first request, or the time until it was cancelled
+     * @param wasHedged true if a duplicate request was sent, see {@link #tryHedge()}
+     * @param hedgeWon true if the response of the duplicate request was used
+     */
+    synchronized void record(final long latencyNanos, final boolean wasHedged, final boolean hedgeWon) {
+        requests++;
+        if (wasHedged) {
+            hedgesInFlight--;
+        }
+        if (hedgeWon) {
+            hedgeWins++;
+        }
+
+        if (samples == latencies.length && hedged[next]) {
+            hedgesInWindow--;
+        }
+        latencies[next] = latencyNanos;
+        hedged[next] = wasHedged;
+        if (wasHedged) {
+            hedgesInWindow++;
+        }
+        next = (next + 1) % latencies.length;
+        samples = Math.min(samples + 1, latencies.length);
+    }
+}
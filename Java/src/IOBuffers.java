@@ -0,0 +1,155 @@
+/**
+ * IOBuffers provides reusable byte buffers and UTF-8 conversion for the
+ * request and response bodies of the Wikitude Cloud Targets API, so sending a
+ * request does not allocate readers, writers and intermediate strings.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+final class IOBuffers {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 8192;
+    // buffers that grew beyond this size are not kept, so a single huge response does not pin its memory
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final byte REPLACEMENT = (byte) '?';
+
+    // one buffer per thread, requests of a thread are sent one after another
+    private static final ThreadLocal<IOBuffers> BUFFERS = new ThreadLocal<IOBuffers>() {
+        @Override
+        protected IOBuffers initialValue() {
+            return new IOBuffers();
+        }
+    };
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    private boolean inUse;
+
+    private IOBuffers() {
+    }
+
+    /**
+     * Acquires the buffer of the current thread, to be released after use.
+     * @return the buffer, empty
+     */
+    static IOBuffers acquire() {
+        final IOBuffers buffers = BUFFERS.get();
+        if (buffers.inUse) {
+            // nested use on the same thread, fall back to a buffer of its own
+            final IOBuffers nested = new IOBuffers();
+            nested.inUse = true;
+            return nested;
+        }
+        buffers.inUse = true;
+        buffers.length = 0;
+        return buffers;
+    }
+
+    /**
+     * Hands the buffer back for reuse.
+     */
+    void release() {
+        inUse = false;
+        length = 0;
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * @return number of bytes in the buffer
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Encodes the given string as UTF-8 into the buffer, replacing its content.
+     * @param text string to encode
+     * @return number of encoded bytes
+     */
+    int encode(final String text) {
+        length = 0;
+        final int chars = text.length();
+        ensureCapacity(chars);
+        for (int i = 0; i < chars; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                ensureCapacity(length + 1);
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureCapacity(length + 2);
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ensureCapacity(length + 4);
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates cannot be encoded
+                ensureCapacity(length + 1);
+                buffer[length++] = REPLACEMENT;
+            } else {
+                ensureCapacity(length + 3);
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Writes the content of the buffer to the given stream.
+     * @param out stream to write to
+     * @throws IOException thrown in case the stream could not be written
+     */
+    void writeTo(final OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Reads the given stream until its end into the buffer, replacing its content.
+     * @param in stream to read
+     * @return number of bytes read
+     * @throws IOException thrown in case the stream could not be read
+     */
+    int readFrom(final InputStream in) throws IOException {
+        length = 0;
+        for (int read; (read = in.read(buffer, length, buffer.length - length)) != -1; ) {
+            length += read;
+            ensureCapacity(length + 1);
+        }
+
+        return length;
+    }
+
+    /**
+     * @return the content of the buffer decoded as UTF-8
+     */
+    String decode() {
+        return new String(buffer, 0, length, UTF_8);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > buffer.length) {
+            final byte[] grown = new byte[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,618 @@
+/**
+ * InventoryIndex keeps a searchable in-memory copy of the projects, target
+ * collections and targets of an account, so lookups by id, name or metadata
+ * don't require any calls to the Wikitude Cloud Targets API.
+ *
+ * The index is built from the listings of the API, refreshed incrementally
+ * in the background and updated from the changes made through the API object
+ * it is attached to. It can be persisted as a snapshot, so a new session
+ * starts with a populated index.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class InventoryIndex {
+
+    /**
+     * A target found in the index together with the target collection it belongs to.
+     */
+    public static class IndexedTarget {
+        private final String tcId;
+        private final JSONObject target;
+
+        IndexedTarget(final String tcId, final JSONObject target) {
+            this.tcId = tcId;
+            this.target = target;
+        }
+
+        public String getTargetCollectionId() {
+            return tcId;
+        }
+
+        /**
+         * @return JSON representation of the target, must not be modified
+         */
+        public JSONObject getTarget() {
+            return target;
+        }
+
+        @Override
+        public String toString() {
+            return tcId + ": " + target;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_PROJECTS = "projects";
+    private static final String KEY_TARGET_COLLECTIONS = "targetCollections";
+    private static final String KEY_TARGETS = "targets";
+    private static final String KEY_ID = "id";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_METADATA = "metadata";
+
+    private final CloudManagerAPI api;
+    // file the snapshot is persisted to, null if the index is not persisted
+    private final File snapshotFile;
+    // number of unchanged collections whose targets are listed again per refresh, oldest listing first
+    private final int collectionsPerRefresh;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> refreshTask;
+    // makes sure a manual and a background refresh don't run at the same time
+    private final Object refreshLock = new Object();
+
+    // the state of the index, guarded by this
+    private final Map<String, JSONObject> projects = new LinkedHashMap<String, JSONObject>();
+    private final Map<String, JSONObject> targetCollections = new LinkedHashMap<String, JSONObject>();
+    private final Map<String, Map<String, JSONObject>> targetsByCollection = new HashMap<String, Map<String, JSONObject>>();
+    private final Map<String, String> collectionOfTarget = new HashMap<String, String>();
+    private final Map<String, Set<String>> projectIdsByName = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> tcIdsByName = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> targetIdsByName = new HashMap<String, Set<String>>();
+    // metadata field, value of the field, ids of the targets with that value
+    private final Map<String, Map<String, Set<String>>> targetIdsByMetadata = new HashMap<String, Map<String, Set<String>>>();
+    // collections in the order their targets were last listed, least recent first
+    private final Set<String> listingOrder = new LinkedHashSet<String>();
+    // collections whose targets are known to be incomplete, e.g. after targets were added in a batch
+    private final Set<String> staleCollections = new HashSet<String>();
+    // number of changes per collection, to detect changes while its targets are listed
+    private final Map<String, Integer> mutationCounts = new HashMap<String, Integer>();
+
+    private final CloudManagerAPI.MutationListener mutationListener = new CloudManagerAPI.MutationListener() {
+        @Override
+        public void onTargetCollectionChanged(final JSONObject targetCollection) {
+            synchronized (InventoryIndex.this) {
+                final String tcId = targetCollection.optString(KEY_ID);
+                putTargetCollection(targetCollection);
+                if (!targetsByCollection.containsKey(tcId)) {
+                    targetsByCollection.put(tcId, new LinkedHashMap<String, JSONObject>());
+                    listingOrder.add(tcId);
+                }
+                countMutation(tcId);
+            }
+        }
+
+        @Override
+        public void onTargetCollectionDeleted(final String tcId) {
+            synchronized (InventoryIndex.this) {
+                // a listing of the collection that is still running is dropped, as the collection is unknown now
+                removeTargetCollection(tcId);
+            }
+        }
+
+        @Override
+        public void onTargetChanged(final String tcId, final String targetId, final JSONObject target) {
+            synchronized (InventoryIndex.this) {
+                if (!targetCollections.containsKey(tcId)) {
+                    // the collection is not indexed, its targets are picked up once it is listed
+                    return;
+                }
+                removeTarget(targetId);
+                putTarget(tcId, targetId, target);
+                countMutation(tcId);
+            }
+        }
+
+        @Override
+        public void onTargetDeleted(final String tcId, final String targetId) {
+            synchronized (InventoryIndex.this) {
+                if (!targetCollections.containsKey(tcId)) {
+                    return;
+                }
+                removeTarget(targetId);
+                countMutation(tcId);
+            }
+        }
+
+        @Override
+        public void onTargetsAdded(final String tcId, final JSONArray targets) {
+            synchronized (InventoryIndex.this) {
+                if (!targetCollections.containsKey(tcId)) {
+                    return;
+                }
+                // the ids of the new targets are unknown until the collection is listed again
+                staleCollections.add(tcId);
+                countMutation(tcId);
+            }
+        }
+    };
+
+    /**
+     * Creates a new, empty index and attaches it to the given API object, so it follows the changes made through it.
+     * Call {@link #load()} or {@link #rebuild()} to populate it.
+     *
+     * @param api
+     *            The API object used to list the inventory
+     * @param snapshotFile
+     *            The file the index is persisted to, null if it should not be persisted
+     * @param collectionsPerRefresh
+     *            The number of unchanged target collections whose targets are listed again per refresh, to pick up
+     *            changes made by other clients
+     */
+    public InventoryIndex(final CloudManagerAPI api, final File snapshotFile, final int collectionsPerRefresh) {
+        this.api = api;
+        this.snapshotFile = snapshotFile;
+        this.collectionsPerRefresh = collectionsPerRefresh;
+        this.scheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "InventoryIndex");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        api.addMutationListener(mutationListener);
+    }
+
+    /**
+     * Replaces the index by the persisted snapshot.
+     * @return true if the snapshot was loaded, false if there is none
+     * @throws IOException thrown in case the snapshot could not be read
+     * @throws JSONException thrown in case the snapshot is no valid JSON
+     */
+    public synchronized boolean load() throws IOException, JSONException {
+        if (snapshotFile == null || !snapshotFile.isFile()) {
+            return false;
+        }
+        final JSONObject snapshot = new JSONObject(new String(Files.readAllBytes(snapshotFile.toPath()), UTF_8));
+        if (snapshot.optInt(KEY_VERSION) != SNAPSHOT_VERSION) {
+            return false;
+        }
+
+        final JSONObject targets = snapshot.getJSONObject(KEY_TARGETS);
+        final Map<String, JSONArray> targetsByTcId = new HashMap<String, JSONArray>();
+        final Iterator<?> tcIds = targets.keys();
+        while (tcIds.hasNext()) {
+            final String tcId = (String) tcIds.next();
+            targetsByTcId.put(tcId, targets.getJSONArray(tcId));
+        }
+        replace(snapshot.getJSONArray(KEY_PROJECTS), snapshot.getJSONArray(KEY_TARGET_COLLECTIONS), targetsByTcId);
+
+        return true;
+    }
+
+    /**
+     * Persists the index as snapshot, the file is replaced atomically.
+     * @throws IOException thrown in case the snapshot could not be written
+     * @throws JSONException thrown in case the index could not be serialized
+     */
+    public void save() throws IOException, JSONException {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("no snapshot file configured");
+        }
+        final String snapshot;
+        synchronized (this) {
+            final JSONObject targets = new JSONObject();
+            for (final Map.Entry<String, Map<String, JSONObject>> entry : targetsByCollection.entrySet()) {
+                targets.put(entry.getKey(), new JSONArray(entry.getValue().values()));
+            }
+            final JSONObject json = new JSONObject();
+            json.put(KEY_VERSION, SNAPSHOT_VERSION);
+            json.put(KEY_PROJECTS, new JSONArray(projects.values()));
+            json.put(KEY_TARGET_COLLECTIONS, new JSONArray(targetCollections.values()));
+            json.put(KEY_TARGETS, targets);
+            snapshot = json.toString();
+        }
+
+        final File directory = snapshotFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create snapshot directory " + directory);
+        }
+        // write to a temporary file first, so a crash never leaves a partially written snapshot
+        final File tempFile = File.createTempFile(snapshotFile.getName(), ".tmp", directory);
+        Files.write(tempFile.toPath(), snapshot.getBytes(UTF_8));
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the index by the complete inventory, listing the targets of every target collection.
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     */
+    public void rebuild() throws IOException, JSONException, CloudManagerAPI.APIException {
+        synchronized (refreshLock) {
+            final JSONArray projectList = api.getAllProjects();
+            final JSONArray tcList = api.getAllTargetCollections();
+            final Map<String, JSONArray> targetsByTcId = new HashMap<String, JSONArray>();
+            for (int i = 0; i < tcList.length(); i++) {
+                final String tcId = tcList.getJSONObject(i).getString(KEY_ID);
+                targetsByTcId.put(tcId, api.getAllTargets(tcId));
+            }
+            synchronized (this) {
+                replace(projectList, tcList, targetsByTcId);
+            }
+        }
+    }
+
+    /**
+     * Brings the index up to date with a few calls: the projects and target collections are listed, but targets are
+     * only listed for collections that are new, changed or stale, plus the configured number of collections whose
+     * last listing is the oldest.
+     * @return number of target collections whose targets were listed
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     */
+    public int refresh() throws IOException, JSONException, CloudManagerAPI.APIException {
+        synchronized (refreshLock) {
+            final JSONArray projectList = api.getAllProjects();
+            final JSONArray tcList = api.getAllTargetCollections();
+
+            final Map<String, Integer> toList = new LinkedHashMap<String, Integer>();
+            synchronized (this) {
+                projects.clear();
+                projectIdsByName.clear();
+                for (int i = 0; i < projectList.length(); i++) {
+                    putProject(projectList.getJSONObject(i));
+                }
+
+                final Set<String> deleted = new HashSet<String>(targetCollections.keySet());
+                for (int i = 0; i < tcList.length(); i++) {
+                    final JSONObject tc = tcList.getJSONObject(i);
+                    final String tcId = tc.getString(KEY_ID);
+                    deleted.remove(tcId);
+                    final JSONObject indexed = targetCollections.get(tcId);
+                    if (indexed == null || !indexed.toString().equals(tc.toString()) || staleCollections.contains(tcId)) {
+                        toList.put(tcId, getMutationCount(tcId));
+                    }
+                    putTargetCollection(tc);
+                }
+                for (final String tcId : deleted) {
+                    removeTargetCollection(tcId);
+                }
+                final int limit = toList.size() + collectionsPerRefresh;
+                for (final Iterator<String> it = listingOrder.iterator(); it.hasNext() && toList.size() < limit; ) {
+                    final String tcId = it.next();
+                    if (!toList.containsKey(tcId)) {
+                        toList.put(tcId, getMutationCount(tcId));
+                    }
+                }
+            }
+
+            for (final Map.Entry<String, Integer> entry : toList.entrySet()) {
+                final String tcId = entry.getKey();
+                final JSONArray targets = api.getAllTargets(tcId);
+                synchronized (this) {
+                    // a listing that started before a change made through the API object would revert it
+                    if (!targetCollections.containsKey(tcId)) {
+                        continue;
+                    }
+                    if (getMutationCount(tcId) != entry.getValue()) {
+                        staleCollections.add(tcId);
+                        continue;
+                    }
+                    replaceTargets(tcId, targets);
+                }
+            }
+
+            return toList.size();
+        }
+    }
+
+    /**
+     * Refreshes the index in the background, see {@link #refresh()}.
+     * @param interval interval in milliseconds between two refreshes
+     */
+    public synchronized void startRefresh(final long interval) {
+        stopRefresh();
+        refreshTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    // try again with the next refresh
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops refreshing the index in the background.
+     */
+    public synchronized void stopRefresh() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+    }
+
+    /**
+     * Stops refreshing and detaches the index from its API object.
+     */
+    public void close() {
+        stopRefresh();
+        scheduler.shutdown();
+        api.removeMutationListener(mutationListener);
+    }
+
+    /**
+     * @param projectId id of a project
+     * @return JSON representation of the project, null if it is not indexed
+     */
+    public synchronized JSONObject getProject(final String projectId) {
+        return projects.get(projectId);
+    }
+
+    /**
+     * @param name name of a project
+     * @return JSON representations of all projects with that name
+     */
+    public synchronized List<JSONObject> findProjectsByName(final String name) {
+        return lookup(projects, projectIdsByName.get(name));
+    }
+
+    /**
+     * @param tcId id of a target collection
+     * @return JSON representation of the target collection, null if it is not indexed
+     */
+    public synchronized JSONObject getTargetCollection(final String tcId) {
+        return targetCollections.get(tcId);
+    }
+
+    /**
+     * @param name name of a target collection
+     * @return JSON representations of all target collections with that name
+     */
+    public synchronized List<JSONObject> findTargetCollectionsByName(final String name) {
+        return lookup(targetCollections, tcIdsByName.get(name));
+    }
+
+    /**
+     * @param tcId id of a target collection
+     * @return JSON representations of the collection's targets, empty if the collection is not indexed
+     */
+    public synchronized List<JSONObject> getTargets(final String tcId) {
+        final Map<String, JSONObject> targets = targetsByCollection.get(tcId);
+        return targets == null ? Collections.<JSONObject>emptyList() : new ArrayList<JSONObject>(targets.values());
+    }
+
+    /**
+     * @param targetId id of a target
+     * @return the target and its collection, null if it is not indexed
+     */
+    public synchronized IndexedTarget getTarget(final String targetId) {
+        final String tcId = collectionOfTarget.get(targetId);
+        return tcId == null ? null : new IndexedTarget(tcId, targetsByCollection.get(tcId).get(targetId));
+    }
+
+    /**
+     * @param name name of a target
+     * @return all targets with that name and their collections
+     */
+    public synchronized List<IndexedTarget> findTargetsByName(final String name) {
+        return lookupTargets(targetIdsByName.get(name));
+    }
+
+    /**
+     * @param field name of a field of the targets' metadata
+     * @param value value of the field, compared as string
+     * @return all targets whose metadata field has the given value and their collections
+     */
+    public synchronized List<IndexedTarget> findTargetsByMetadata(final String field, final String value) {
+        final Map<String, Set<String>> values = targetIdsByMetadata.get(field);
+        return lookupTargets(values == null ? null : values.get(value));
+    }
+
+    private void replace(final JSONArray projectList, final JSONArray tcList, final Map<String, JSONArray> targetsByTcId) throws JSONException {
+        projects.clear();
+        targetCollections.clear();
+        targetsByCollection.clear();
+        collectionOfTarget.clear();
+        projectIdsByName.clear();
+        tcIdsByName.clear();
+        targetIdsByName.clear();
+        targetIdsByMetadata.clear();
+        listingOrder.clear();
+        staleCollections.clear();
+
+        for (int i = 0; i < projectList.length(); i++) {
+            putProject(projectList.getJSONObject(i));
+        }
+        for (int i = 0; i < tcList.length(); i++) {
+            final JSONObject tc = tcList.getJSONObject(i);
+            putTargetCollection(tc);
+            final JSONArray targets = targetsByTcId.get(tc.getString(KEY_ID));
+            replaceTargets(tc.getString(KEY_ID), targets == null ? new JSONArray() : targets);
+        }
+        // the counts of the remaining collections still guard listings of a running refresh
+        mutationCounts.keySet().retainAll(targetCollections.keySet());
+    }
+
+    private void replaceTargets(final String tcId, final JSONArray targets) throws JSONException {
+        final Map<String, JSONObject> previous = targetsByCollection.get(tcId);
+        if (previous != null) {
+            for (final String targetId : new ArrayList<String>(previous.keySet())) {
+                removeTarget(targetId);
+            }
+        }
+        targetsByCollection.put(tcId, new LinkedHashMap<String, JSONObject>());
+        for (int i = 0; i < targets.length(); i++) {
+            final JSONObject target = targets.getJSONObject(i);
+            putTarget(tcId, target.getString(KEY_ID), target);
+        }
+        staleCollections.remove(tcId);
+        listingOrder.remove(tcId);
+        listingOrder.add(tcId);
+    }
+
+    private void putProject(final JSONObject project) {
+        final String projectId = project.optString(KEY_ID, null);
+        if (projectId != null) {
+            projects.put(projectId, project);
+            addTo(projectIdsByName, project.optString(KEY_NAME), projectId);
+        }
+    }
+
+    private void putTargetCollection(final JSONObject tc) {
+        final String tcId = tc.optString(KEY_ID);
+        final JSONObject previous = targetCollections.put(tcId, tc);
+        if (previous != null) {
+            removeFrom(tcIdsByName, previous.optString(KEY_NAME), tcId);
+        }
+        addTo(tcIdsByName, tc.optString(KEY_NAME), tcId);
+    }
+
+    private void removeTargetCollection(final String tcId) {
+        final JSONObject tc = targetCollections.remove(tcId);
+        if (tc != null) {
+            removeFrom(tcIdsByName, tc.optString(KEY_NAME), tcId);
+        }
+        final Map<String, JSONObject> targets = targetsByCollection.get(tcId);
+        if (targets != null) {
+            for (final String targetId : new ArrayList<String>(targets.keySet())) {
+                removeTarget(targetId);
+            }
+        }
+        targetsByCollection.remove(tcId);
+        listingOrder.remove(tcId);
+        staleCollections.remove(tcId);
+        mutationCounts.remove(tcId);
+    }
+
+    private void putTarget(final String tcId, final String targetId, final JSONObject target) {
+        Map<String, JSONObject> targets = targetsByCollection.get(tcId);
+        if (targets == null) {
+            targets = new LinkedHashMap<String, JSONObject>();
+            targetsByCollection.put(tcId, targets);
+        }
+        targets.put(targetId, target);
+        collectionOfTarget.put(targetId, tcId);
+        addTo(targetIdsByName, target.optString(KEY_NAME), targetId);
+
+        final JSONObject metadata = target.optJSONObject(KEY_METADATA);
+        if (metadata != null) {
+            final Iterator<?> fields = metadata.keys();
+            while (fields.hasNext()) {
+                final String field = (String) fields.next();
+                Map<String, Set<String>> values = targetIdsByMetadata.get(field);
+                if (values == null) {
+                    values = new HashMap<String, Set<String>>();
+                    targetIdsByMetadata.put(field, values);
+                }
+                addTo(values, String.valueOf(metadata.opt(field)), targetId);
+            }
+        }
+    }
+
+    private void removeTarget(final String targetId) {
+        final String tcId = collectionOfTarget.remove(targetId);
+        if (tcId == null) {
+            return;
+        }
+        final JSONObject target = targetsByCollection.get(tcId).remove(targetId);
+        removeFrom(targetIdsByName, target.optString(KEY_NAME), targetId);
+
+        final JSONObject metadata = target.optJSONObject(KEY_METADATA);
+        if (metadata != null) {
+            final Iterator<?> fields = metadata.keys();
+            while (fields.hasNext()) {
+                final String field = (String) fields.next();
+                final Map<String, Set<String>> values = targetIdsByMetadata.get(field);
+                if (values == null) {
+                    continue;
+                }
+                removeFrom(values, String.valueOf(metadata.opt(field)), targetId);
+                if (values.isEmpty()) {
+                    targetIdsByMetadata.remove(field);
+                }
+            }
+        }
+    }
+
+    private void countMutation(final String tcId) {
+        mutationCounts.put(tcId, getMutationCount(tcId) + 1);
+    }
+
+    private int getMutationCount(final String tcId) {
+        final Integer count = mutationCounts.get(tcId);
+        return count == null ? 0 : count;
+    }
+
+    private List<IndexedTarget> lookupTargets(final Set<String> targetIds) {
+        final List<IndexedTarget> found = new ArrayList<IndexedTarget>();
+        if (targetIds != null) {
+            for (final String targetId : targetIds) {
+                found.add(getTarget(targetId));
+            }
+        }
+        return found;
+    }
+
+    private static List<JSONObject> lookup(final Map<String, JSONObject> byId, final Set<String> ids) {
+        final List<JSONObject> found = new ArrayList<JSONObject>();
+        if (ids != null) {
+            for (final String id : ids) {
+                found.add(byId.get(id));
+            }
+        }
+        return found;
+    }
+
+    private static void addTo(final Map<String, Set<String>> multimap, final String key, final String id) {
+        Set<String> ids = multimap.get(key);
+        if (ids == null) {
+            ids = new LinkedHashSet<String>();
+            multimap.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void removeFrom(final Map<String, Set<String>> multimap, final String key, final String id) {
+        final Set<String> ids = multimap.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            multimap.remove(key);
+        }
+    }
+}
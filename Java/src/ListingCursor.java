@@ -0,0 +1,163 @@
+/**
+ * ListingCursor reads a listing of the Wikitude Cloud Targets API page by
+ * page and prefetches the next page while the current one is processed.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class ListingCursor implements Closeable {
+
+    /**
+     * Loads one page of a listing from the service.
+     */
+    interface PageLoader {
+        /**
+         * @param offset index of the first element of the page
+         * @param limit maximal number of elements of the page
+         * @return the elements of the page, or the complete listing in case the service does not support paging
+         */
+        JSONArray load(int offset, int limit) throws IOException, JSONException, CloudManagerAPI.APIException;
+
+        /**
+         * @return the complete listing, requested without paging parameters
+         */
+        JSONArray loadAll() throws IOException, JSONException, CloudManagerAPI.APIException;
+    }
+
+    // prefetches pages of all cursors, threads are only kept alive while cursors are in use
+    private static final ExecutorService PREFETCHER = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "ListingCursor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final PageLoader loader;
+    private final int pageSize;
+    // offset of the next page to return
+    private int offset;
+    // the next page, loaded in the background
+    private Future<JSONArray> prefetch;
+    // the complete listing, in case the service ignored the paging parameters
+    private JSONArray fallback;
+    // first element of the first page, a later page starting with it means the service ignored the offset
+    private String firstElement;
+    private boolean exhausted;
+
+    ListingCursor(final PageLoader loader, final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+        this.loader = loader;
+        this.pageSize = pageSize;
+        this.prefetch = load(0);
+    }
+
+    /**
+     * @return false once all pages were returned
+     */
+    public synchronized boolean hasNextPage() {
+        return !exhausted;
+    }
+
+    /**
+     * Returns the next page and starts loading the page after it in the background.
+     * @return JSONArray with up to pageSize elements, null if there are no more pages
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting for the page is interrupted
+     */
+    public synchronized JSONArray nextPage() throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        if (exhausted) {
+            return null;
+        }
+
+        final JSONArray page;
+        if (fallback != null) {
+            page = window(fallback, offset);
+        } else {
+            final JSONArray loaded = Futures.await(prefetch);
+            prefetch = null;
+            if (offset == 0 && loaded.length() > 0) {
+                firstElement = keyOf(loaded.get(0));
+            }
+            if (offset == 0 && loaded.length() > pageSize) {
+                // the service ignored offset and limit and returned everything, continue page by page locally
+                fallback = loaded;
+                page = window(fallback, offset);
+            } else if (loaded.length() > pageSize || (offset > 0 && loaded.length() > 0 && keyOf(loaded.get(0)).equals(firstElement))) {
+                // the service ignored the offset, the loaded page may be truncated by the limit, so load everything
+                fallback = loader.loadAll();
+                page = window(fallback, offset);
+            } else {
+                page = loaded;
+            }
+        }
+
+        offset += page.length();
+        if (page.length() < pageSize || (fallback != null && offset >= fallback.length())) {
+            exhausted = true;
+        } else if (fallback == null) {
+            prefetch = load(offset);
+        }
+
+        return page;
+    }
+
+    /**
+     * Stops loading further pages.
+     */
+    @Override
+    public synchronized void close() {
+        exhausted = true;
+        if (prefetch != null) {
+            prefetch.cancel(true);
+            prefetch = null;
+        }
+    }
+
+    private Future<JSONArray> load(final int pageOffset) {
+        return PREFETCHER.submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                return loader.load(pageOffset, pageSize);
+            }
+        });
+    }
+
+    private JSONArray window(final JSONArray listing, final int start) throws JSONException {
+        final JSONArray page = new JSONArray();
+        final int end = Math.min(listing.length(), start + pageSize);
+        for (int i = start; i < end; i++) {
+            page.put(listing.get(i));
+        }
+
+        return page;
+    }
+
+    private static String keyOf(final Object element) {
+        if (element instanceof JSONObject && ((JSONObject) element).has("id")) {
+            return ((JSONObject) element).optString("id");
+        }
+        return String.valueOf(element);
+    }
+}
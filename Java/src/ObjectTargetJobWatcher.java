@@ -0,0 +1,444 @@
+/**
+ * ObjectTargetJobWatcher publishes state changes of the asynchronous jobs of
+ * object target collections, so callers don't have to poll each collection.
+ *
+ * All collections are swept and all items are delivered on a single thread
+ * of the watcher. A subscriber that blocks in onNext delays the sweeps of
+ * every watched collection, so long running work should be handed off to an
+ * executor of the subscriber.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class ObjectTargetJobWatcher {
+
+    /*
+     * The following interfaces follow the contract of java.util.concurrent.Flow (Reactive Streams),
+     * which is only available from Java 9 on. Subscribers written against them can be adapted to
+     * Flow.Subscriber one to one.
+     */
+
+    /**
+     * A producer of items that are received by subscribers.
+     */
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items, which are only delivered after they were requested through the subscription.
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Links a publisher and a subscriber.
+     */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    /**
+     * A job of an object target collection that was created or changed its status.
+     */
+    public static class JobStateChange {
+        private final String tcId;
+        private final String previousStatus;
+        private final JSONObject job;
+
+        JobStateChange(final String tcId, final String previousStatus, final JSONObject job) {
+            this.tcId = tcId;
+            this.previousStatus = previousStatus;
+            this.job = job;
+        }
+
+        /**
+         * @return id of the object target collection the job belongs to
+         */
+        public String getTcId() {
+            return tcId;
+        }
+
+        /**
+         * @return id of the job
+         */
+        public String getJobId() {
+            return job.optString("id");
+        }
+
+        /**
+         * @return status of the job before this change, null if the job was not known before
+         */
+        public String getPreviousStatus() {
+            return previousStatus;
+        }
+
+        /**
+         * @return current status of the job
+         */
+        public String getStatus() {
+            return job.optString("status");
+        }
+
+        /**
+         * @return JSON representation of the job as returned by the service
+         */
+        public JSONObject getJob() {
+            return job;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s/%s: %s -> %s", tcId, getJobId(), previousStatus, getStatus());
+        }
+    }
+
+    // not defined by HttpURLConnection
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final CloudManagerAPI api;
+    // interval between two sweeps of the same collection
+    private final long sweepInterval;
+    private final ScheduledExecutorService scheduler;
+    // collections that are currently watched, keyed by target collection id
+    private final Map<String, CollectionSweep> sweeps = new HashMap<String, CollectionSweep>();
+
+    /**
+     * Creates a new watcher on top of the given API object.
+     *
+     * @param api
+     *            The API object used to list the jobs
+     * @param sweepInterval
+     *            The interval in milliseconds in which the jobs of each watched collection are listed
+     */
+    public ObjectTargetJobWatcher(final CloudManagerAPI api, final long sweepInterval) {
+        this.api = api;
+        this.sweepInterval = sweepInterval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "ObjectTargetJobWatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Watch the jobs of the given object target collections. Each collection is polled once per sweep interval,
+     * no matter how many subscribers it has, and it is no longer polled once it has no subscribers left.
+     * Subscribers first receive all current jobs of the collections with a previous status of null, also when the
+     * collection was already watched for another subscriber, and afterwards only jobs that were created or changed
+     * their status since the previous sweep. In case
+     * a subscriber requests less than is published, pending changes of the same job are merged into the latest one.
+     * Items are delivered on the thread of the watcher that also runs the sweeps, onNext should return quickly.
+     * Network problems and server errors are retried with the next sweep, other errors end the subscriptions.
+     * @param tcIds ids of the object target collections
+     * @return publisher of the state changes of all jobs of the given collections
+     */
+    public Publisher<JobStateChange> watch(final String... tcIds) {
+        final Set<String> watchedTcIds = new LinkedHashSet<String>(Arrays.asList(tcIds));
+
+        return new Publisher<JobStateChange>() {
+            @Override
+            public void subscribe(final Subscriber<? super JobStateChange> subscriber) {
+                final JobSubscription subscription = new JobSubscription(subscriber, watchedTcIds);
+                subscriber.onSubscribe(subscription);
+                synchronized (sweeps) {
+                    if (!subscription.isCancelled()) {
+                        for (final String tcId : watchedTcIds) {
+                            register(tcId, subscription);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Stops all sweeps, active subscribers are completed.
+     */
+    public void shutdown() {
+        final List<JobSubscription> subscriptions = new ArrayList<JobSubscription>();
+        synchronized (sweeps) {
+            for (final CollectionSweep sweep : sweeps.values()) {
+                sweep.schedule.cancel(false);
+                subscriptions.addAll(sweep.subscriptions);
+            }
+            sweeps.clear();
+        }
+        scheduler.shutdown();
+
+        for (final JobSubscription subscription : new LinkedHashSet<JobSubscription>(subscriptions)) {
+            subscription.complete();
+        }
+    }
+
+    private void register(final String tcId, final JobSubscription subscription) {
+        final CollectionSweep existing = sweeps.get(tcId);
+        if (existing == null) {
+            // the first sweep publishes all jobs as new
+            final CollectionSweep sweep = new CollectionSweep(tcId);
+            sweep.subscriptions.add(subscription);
+            sweep.schedule = scheduler.scheduleWithFixedDelay(sweep, 0, sweepInterval, TimeUnit.MILLISECONDS);
+            sweeps.put(tcId, sweep);
+        } else {
+            existing.subscriptions.add(subscription);
+            // runs on the sweep thread, so the known jobs are not changed meanwhile
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    existing.replay(subscription);
+                }
+            });
+        }
+    }
+
+    private void unregister(final Collection<String> tcIds, final JobSubscription subscription) {
+        synchronized (sweeps) {
+            for (final String tcId : tcIds) {
+                final CollectionSweep sweep = sweeps.get(tcId);
+                if (sweep != null && sweep.subscriptions.remove(subscription) && sweep.subscriptions.isEmpty()) {
+                    sweep.schedule.cancel(false);
+                    sweeps.remove(tcId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Periodically lists the jobs of one collection and publishes the differences to the previous listing.
+     */
+    private class CollectionSweep implements Runnable {
+        private final String tcId;
+        private final Set<JobSubscription> subscriptions = new CopyOnWriteArraySet<JobSubscription>();
+        // last known state of each job, keyed by job id
+        private final Map<String, JSONObject> knownJobs = new LinkedHashMap<String, JSONObject>();
+        private ScheduledFuture<?> schedule;
+
+        CollectionSweep(final String tcId) {
+            this.tcId = tcId;
+        }
+
+        @Override
+        public void run() {
+            final JSONArray jobs;
+            try {
+                jobs = api.getObjectTargetCollectionJobs(tcId);
+            } catch (IOException e) {
+                // network problems are transient, try again with the next sweep
+                return;
+            } catch (JSONException e) {
+                fail(e);
+                return;
+            } catch (CloudManagerAPI.APIException e) {
+                if (isTransient(e)) {
+                    // the service is overloaded or unavailable for a moment, try again with the next sweep
+                    return;
+                }
+                fail(e);
+                return;
+            }
+
+            final List<JobStateChange> changes = new ArrayList<JobStateChange>();
+            for (int i = 0; i < jobs.length(); i++) {
+                final JSONObject job = jobs.optJSONObject(i);
+                if (job == null || !job.has("id")) {
+                    continue;
+                }
+                final String jobId = job.optString("id");
+                final String status = job.optString("status");
+                final JSONObject previous = knownJobs.put(jobId, job);
+                final String previousStatus = previous == null ? null : previous.optString("status");
+                if (!status.equals(previousStatus)) {
+                    changes.add(new JobStateChange(tcId, previousStatus, job));
+                }
+            }
+
+            for (final JobSubscription subscription : subscriptions) {
+                subscription.publish(changes);
+            }
+        }
+
+        private boolean isTransient(final CloudManagerAPI.APIException e) {
+            return e.getCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR || e.getCode() == HTTP_TOO_MANY_REQUESTS;
+        }
+
+        /**
+         * Publishes all known jobs to a subscription that joined after the collection was swept already.
+         */
+        void replay(final JobSubscription subscription) {
+            if (!subscriptions.contains(subscription)) {
+                return;
+            }
+            final List<JobStateChange> changes = new ArrayList<JobStateChange>();
+            for (final JSONObject job : knownJobs.values()) {
+                changes.add(new JobStateChange(tcId, null, job));
+            }
+            subscription.publish(changes);
+        }
+
+        private void fail(final Exception e) {
+            for (final JobSubscription subscription : subscriptions) {
+                subscription.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Buffers the changes of one subscriber until they are requested.
+     */
+    private class JobSubscription implements Subscription {
+        private final Subscriber<? super JobStateChange> subscriber;
+        private final Set<String> tcIds;
+        // changes not yet delivered, keyed by collection and job, so later changes replace earlier ones
+        private final Map<String, JobStateChange> pending = new LinkedHashMap<String, JobStateChange>();
+        private long demand;
+        private boolean draining;
+        private boolean cancelled;
+        private Throwable error;
+        private boolean completed;
+
+        JobSubscription(final Subscriber<? super JobStateChange> subscriber, final Set<String> tcIds) {
+            this.subscriber = subscriber;
+            this.tcIds = tcIds;
+        }
+
+        @Override
+        public void request(final long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive subscription request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+            }
+            unregister(tcIds, this);
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        void publish(final List<JobStateChange> changes) {
+            if (changes.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                for (final JobStateChange change : changes) {
+                    final String key = change.getTcId() + "/" + change.getJobId();
+                    final JobStateChange replaced = pending.remove(key);
+                    // keep the status the subscriber saw last, not the one of the replaced change
+                    pending.put(key, replaced == null ? change : new JobStateChange(change.getTcId(), replaced.getPreviousStatus(), change.getJob()));
+                }
+            }
+            drain();
+        }
+
+        void fail(final Throwable throwable) {
+            synchronized (this) {
+                error = throwable;
+            }
+            drain();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            drain();
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+
+            while (true) {
+                JobStateChange next = null;
+                Throwable terminalError = null;
+                boolean terminalComplete = false;
+                synchronized (this) {
+                    if (cancelled) {
+                        draining = false;
+                        return;
+                    } else if (error != null) {
+                        terminalError = error;
+                        cancelled = true;
+                    } else if (demand > 0 && !pending.isEmpty()) {
+                        final Iterator<JobStateChange> iterator = pending.values().iterator();
+                        next = iterator.next();
+                        iterator.remove();
+                        demand--;
+                    } else if (completed) {
+                        terminalComplete = true;
+                        cancelled = true;
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+
+                if (terminalError != null) {
+                    unregister(tcIds, this);
+                    subscriber.onError(terminalError);
+                } else if (terminalComplete) {
+                    subscriber.onComplete();
+                } else {
+                    subscriber.onNext(next);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,622 @@
+/**
+ * ShardedTargetCollection presents one logical target collection that is
+ * spread over several target collections of the Wikitude Cloud Targets API,
+ * so the size of each generated collection stays bounded.
+ *
+ * Targets are assigned to a shard by a stable hash of their name. The shards
+ * are named "&lt;name&gt;#&lt;index&gt;", which allows them to be found again
+ * in a later session. A fingerprint of the targets of each generated shard
+ * is kept in a state file, so a later session only generates the shards that
+ * changed since.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class ShardedTargetCollection {
+
+    /**
+     * Notified about targets that were moved to another shard. A moved target is created again in its new shard, so
+     * it gets a new id there.
+     */
+    public interface MoveListener {
+        void onTargetMoved(String targetName, String oldTcId, String oldTargetId, String newTcId, String newTargetId);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SHARD_SEPARATOR = "#";
+    // the properties of a target that are copied when it is moved to another shard
+    private static final String[] MOVED_PROPERTIES = { "name", "imageUrl", "physicalHeight", "metadata" };
+
+    private final CloudManagerAPI api;
+    private final String name;
+    private final int maxShardSize;
+    // bounds the number of requests that are sent to the shards at the same time
+    private final ExecutorService executor;
+    // ids of the shards' target collections, in the order of their index
+    private final List<String> shardIds = new ArrayList<String>();
+    // number of targets per shard, in the order of their index
+    private final List<Integer> shardSizes = new ArrayList<Integer>();
+    // ids of the shards that changed since their last generation
+    private final Set<String> dirtyShardIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // fingerprint of the targets of each shard at its last generation, keyed by the id of its target collection
+    private final Properties generatedFingerprints = new Properties();
+    // file the fingerprints are persisted to, null to keep them in memory only
+    private final File generationStateFile;
+    // notified after targets were moved to another shard
+    private final List<MoveListener> moveListeners = new CopyOnWriteArrayList<MoveListener>();
+
+    /**
+     * Creates a new sharded collection on top of the given API object, call {@link #open(int)} before use. The state
+     * of the last generation is not persisted, so the first {@link #generate()} after {@link #open(int)} generates
+     * all shards.
+     *
+     * @param api
+     *            The API object used to manage the shards
+     * @param name
+     *            The name of the logical collection, the shards' names are derived from it
+     * @param maxShardSize
+     *            The number of targets from which on a shard is split by {@link #rebalance()}
+     * @param maxConcurrentOperations
+     *            The maximal number of shards that are accessed at the same time
+     */
+    public ShardedTargetCollection(final CloudManagerAPI api, final String name, final int maxShardSize, final int maxConcurrentOperations) {
+        this(api, name, maxShardSize, maxConcurrentOperations, null);
+    }
+
+    /**
+     * Creates a new sharded collection on top of the given API object, call {@link #open(int)} before use.
+     *
+     * @param api
+     *            The API object used to manage the shards
+     * @param name
+     *            The name of the logical collection, the shards' names are derived from it
+     * @param maxShardSize
+     *            The number of targets from which on a shard is split by {@link #rebalance()}
+     * @param maxConcurrentOperations
+     *            The maximal number of shards that are accessed at the same time
+     * @param generationStateFile
+     *            The file the state of the last generation of each shard is persisted to, null to keep it in memory
+     */
+    public ShardedTargetCollection(final CloudManagerAPI api, final String name, final int maxShardSize, final int maxConcurrentOperations, final File generationStateFile) {
+        if (maxShardSize < 1) {
+            throw new IllegalArgumentException("maxShardSize must be at least 1");
+        }
+        if (maxConcurrentOperations < 1) {
+            throw new IllegalArgumentException("maxConcurrentOperations must be at least 1");
+        }
+        this.api = api;
+        this.name = name;
+        this.maxShardSize = maxShardSize;
+        this.generationStateFile = generationStateFile;
+        this.executor = Executors.newFixedThreadPool(maxConcurrentOperations);
+    }
+
+    /**
+     * Finds the existing shards of the logical collection or creates them if there are none.
+     * Targets left in the wrong shard by an interrupted rebalance are moved to their shard. Shards whose targets
+     * differ from the state of their last generation are marked for {@link #generate()}.
+     * @param initialShards number of shards that are created for a new logical collection
+     * @throws IOException thrown in case of network problems or if the generation state could not be read
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting for the shards is interrupted
+     */
+    public synchronized void open(final int initialShards) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        if (initialShards < 1) {
+            throw new IllegalArgumentException("initialShards must be at least 1");
+        }
+        final String prefix = name + SHARD_SEPARATOR;
+        final TreeMap<Integer, String> existing = new TreeMap<Integer, String>();
+        final JSONArray targetCollections = api.getAllTargetCollections();
+        for (int i = 0; i < targetCollections.length(); i++) {
+            final JSONObject tc = targetCollections.getJSONObject(i);
+            final String tcName = tc.optString("name");
+            if (tcName.startsWith(prefix)) {
+                try {
+                    existing.put(Integer.valueOf(tcName.substring(prefix.length())), tc.getString("id"));
+                } catch (NumberFormatException e) {
+                    // not a shard, just a similar name
+                }
+            }
+        }
+
+        final int shardCount = existing.isEmpty() ? initialShards : existing.lastKey() + 1;
+        shardIds.clear();
+        shardSizes.clear();
+        for (int index = 0; index < shardCount; index++) {
+            String tcId = existing.get(index);
+            if (tcId == null) {
+                tcId = createShard(index);
+            }
+            shardIds.add(tcId);
+            shardSizes.add(0);
+        }
+
+        loadGenerationState();
+        final List<JSONArray> targetsByShard = listShards();
+        dirtyShardIds.clear();
+        for (int index = 0; index < shardCount; index++) {
+            final String tcId = shardIds.get(index);
+            if (!fingerprint(targetsByShard.get(index)).equals(generatedFingerprints.getProperty(tcId))) {
+                dirtyShardIds.add(tcId);
+            }
+        }
+        moveMisplacedTargets(targetsByShard);
+    }
+
+    /**
+     * Registers a listener for targets that are moved by {@link #open(int)}, {@link #addTargets(JSONArray)} or
+     * {@link #rebalance()}.
+     * @param listener listener to add
+     */
+    public void addMoveListener(final MoveListener listener) {
+        moveListeners.add(listener);
+    }
+
+    public void removeMoveListener(final MoveListener listener) {
+        moveListeners.remove(listener);
+    }
+
+    /**
+     * @return ids of the target collections of all shards, in the order of their index
+     */
+    public synchronized List<String> getShardIds() {
+        return Collections.unmodifiableList(new ArrayList<String>(shardIds));
+    }
+
+    /**
+     * @return number of targets in each shard, keyed by the id of its target collection
+     */
+    public synchronized Map<String, Integer> getShardSizes() {
+        final Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < shardIds.size(); i++) {
+            sizes.put(shardIds.get(i), shardSizes.get(i));
+        }
+        return sizes;
+    }
+
+    /**
+     * @param targetName name of a target
+     * @return id of the target collection the target with the given name belongs to
+     */
+    public synchronized String getShardId(final String targetName) {
+        checkOpen();
+        return shardIds.get(shardIndex(targetName, shardIds.size()));
+    }
+
+    /**
+     * adds multiple targets to the logical collection, the targets of each shard are added concurrently.
+     * Shards that grow beyond the maximal shard size are split afterwards.
+     * @param targets JSON representation of targets, each with a unique "name"
+     * @return JSON representation of the status of the operation per shard, keyed by the id of its target collection
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON or a target has no name
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting for the shards is interrupted
+     */
+    public synchronized Map<String, JSONObject> addTargets(final JSONArray targets) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        checkOpen();
+        final Map<Integer, JSONArray> targetsByShard = new TreeMap<Integer, JSONArray>();
+        for (int i = 0; i < targets.length(); i++) {
+            final JSONObject target = targets.getJSONObject(i);
+            final int index = shardIndex(target.getString("name"), shardIds.size());
+            JSONArray shardTargets = targetsByShard.get(index);
+            if (shardTargets == null) {
+                shardTargets = new JSONArray();
+                targetsByShard.put(index, shardTargets);
+            }
+            shardTargets.put(target);
+        }
+
+        final Map<String, JSONObject> statuses = addToShards(targetsByShard);
+        rebalance();
+
+        return statuses;
+    }
+
+    /**
+     * Delete existing target from the logical collection
+     * @param targetName name of the target, to find its shard
+     * @param targetId id of the target in its shard
+     * @return true after successful deletion
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     */
+    public synchronized boolean deleteTarget(final String targetName, final String targetId) throws IOException, JSONException, CloudManagerAPI.APIException {
+        checkOpen();
+        final int index = shardIndex(targetName, shardIds.size());
+        final String tcId = shardIds.get(index);
+        api.deleteTarget(tcId, targetId);
+        shardSizes.set(index, Math.max(0, shardSizes.get(index) - 1));
+        dirtyShardIds.add(tcId);
+
+        return true;
+    }
+
+    /**
+     * Generates the shards that changed since their last generation, concurrently.
+     * @return JSON representation of the status of the generation per shard, keyed by the id of its target collection
+     * @throws IOException thrown in case of network problems or if the generation state could not be written
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting for the generations is interrupted
+     */
+    public synchronized Map<String, JSONObject> generate() throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Map<String, Future<JSONObject>> generations = new LinkedHashMap<String, Future<JSONObject>>();
+        for (final String tcId : shardIds) {
+            if (dirtyShardIds.contains(tcId)) {
+                generations.put(tcId, executor.submit(new Callable<JSONObject>() {
+                    @Override
+                    public JSONObject call() throws Exception {
+                        // changes made while the generation runs are not part of it
+                        dirtyShardIds.remove(tcId);
+                        try {
+                            final String fingerprint = fingerprint(api.getAllTargets(tcId));
+                            final JSONObject status = api.generateTargetCollection(tcId);
+                            generatedFingerprints.setProperty(tcId, fingerprint);
+                            return status;
+                        } catch (Exception e) {
+                            dirtyShardIds.add(tcId);
+                            throw e;
+                        }
+                    }
+                }));
+            }
+        }
+
+        try {
+            return awaitAll(generations);
+        } finally {
+            if (!generations.isEmpty()) {
+                storeGenerationState();
+            }
+        }
+    }
+
+    /**
+     * Adds shards until no shard holds more targets than the maximal shard size. Only the targets that belong to a new
+     * shard are moved, all other targets stay where they are. Moved targets get a new id, see also
+     * {@link #addMoveListener(MoveListener)}.
+     * @return new id of each moved target, keyed by its old id
+     * @throws IOException thrown in case of network problems
+     * @throws JSONException thrown in case server response is no valid JSON
+     * @throws CloudManagerAPI.APIException thrown in case service responds with an error
+     * @throws InterruptedException thrown in case waiting for the shards is interrupted
+     */
+    public synchronized Map<String, String> rebalance() throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        checkOpen();
+        final Map<String, String> moved = new LinkedHashMap<String, String>();
+        while (Collections.max(shardSizes) > maxShardSize) {
+            shardIds.add(createShard(shardIds.size()));
+            shardSizes.add(0);
+            final Map<String, String> movedToShard = moveMisplacedTargets(listShards());
+            if (movedToShard.isEmpty()) {
+                // all targets share the shard of their name, another shard would not help
+                break;
+            }
+            for (final Map.Entry<String, String> move : movedToShard.entrySet()) {
+                // a target moved again keeps its original id as key
+                String originalId = move.getKey();
+                for (final Map.Entry<String, String> earlier : moved.entrySet()) {
+                    if (move.getKey().equals(earlier.getValue())) {
+                        originalId = earlier.getKey();
+                    }
+                }
+                moved.put(originalId, move.getValue());
+            }
+        }
+
+        return moved;
+    }
+
+    /**
+     * Stops the worker threads of this collection, pending operations are finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private String createShard(final int index) throws IOException, JSONException, CloudManagerAPI.APIException {
+        return api.createTargetCollection(name + SHARD_SEPARATOR + index).getString("id");
+    }
+
+    /**
+     * Lists the targets of all shards concurrently and updates the shard sizes.
+     */
+    private List<JSONArray> listShards() throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Map<String, Future<JSONArray>> listings = new LinkedHashMap<String, Future<JSONArray>>();
+        for (final String tcId : shardIds) {
+            listings.put(tcId, executor.submit(new Callable<JSONArray>() {
+                @Override
+                public JSONArray call() throws Exception {
+                    return api.getAllTargets(tcId);
+                }
+            }));
+        }
+
+        final List<JSONArray> targetsByShard = new ArrayList<JSONArray>(awaitAll(listings).values());
+        for (int i = 0; i < targetsByShard.size(); i++) {
+            shardSizes.set(i, targetsByShard.get(i).length());
+        }
+        return targetsByShard;
+    }
+
+    /**
+     * Moves every target that is not in the shard of its name there. A target is first added to its new shard and
+     * deleted from its old shard once its copy shows up in the listing of the new shard, so neither an interruption
+     * nor a rejected copy loses targets. Targets whose copy was rejected are not moved.
+     * @param targetsByShard the current targets of each shard, in the order of the shards' index
+     * @return new id of each moved target, keyed by its old id
+     */
+    private Map<String, String> moveMisplacedTargets(final List<JSONArray> targetsByShard) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final int shardCount = shardIds.size();
+        // target name to target id, per shard
+        final List<Map<String, String>> idsByShard = new ArrayList<Map<String, String>>();
+        for (final JSONArray targets : targetsByShard) {
+            idsByShard.add(targetIds(targets));
+        }
+
+        final Map<Integer, JSONArray> additions = new TreeMap<Integer, JSONArray>();
+        // old tcId, old target id, target name and new tcId of each target that is deleted from its old shard
+        final List<String[]> deletions = new ArrayList<String[]>();
+        for (int source = 0; source < shardCount; source++) {
+            final JSONArray targets = targetsByShard.get(source);
+            for (int i = 0; i < targets.length(); i++) {
+                final JSONObject target = targets.getJSONObject(i);
+                final String targetName = target.getString("name");
+                final int destination = shardIndex(targetName, shardCount);
+                if (destination == source) {
+                    continue;
+                }
+                // an interrupted move may already have added the target to its new shard
+                if (!idsByShard.get(destination).containsKey(targetName)) {
+                    idsByShard.get(destination).put(targetName, null);
+                    JSONArray moved = additions.get(destination);
+                    if (moved == null) {
+                        moved = new JSONArray();
+                        additions.put(destination, moved);
+                    }
+                    moved.put(copyForMove(target));
+                }
+                deletions.add(new String[] { shardIds.get(source), target.getString("id"), targetName, shardIds.get(destination) });
+            }
+        }
+
+        addToShards(additions);
+
+        // addTargets does not return the ids of the created targets, look them up by name
+        final Map<String, Future<JSONArray>> listings = new LinkedHashMap<String, Future<JSONArray>>();
+        for (final Integer destination : additions.keySet()) {
+            final String tcId = shardIds.get(destination);
+            listings.put(tcId, executor.submit(new Callable<JSONArray>() {
+                @Override
+                public JSONArray call() throws Exception {
+                    return api.getAllTargets(tcId);
+                }
+            }));
+        }
+        for (final Map.Entry<String, JSONArray> listing : awaitAll(listings).entrySet()) {
+            final int index = shardIds.indexOf(listing.getKey());
+            idsByShard.get(index).putAll(targetIds(listing.getValue()));
+            shardSizes.set(index, listing.getValue().length());
+        }
+
+        // only targets whose copy arrived in the new shard are deleted, rejected ones stay where they are
+        for (final Iterator<String[]> it = deletions.iterator(); it.hasNext(); ) {
+            final String[] deletion = it.next();
+            if (idsByShard.get(shardIds.indexOf(deletion[3])).get(deletion[2]) == null) {
+                dirtyShardIds.add(deletion[0]);
+                it.remove();
+            }
+        }
+
+        final Map<String, Future<Boolean>> pending = new LinkedHashMap<String, Future<Boolean>>();
+        for (final String[] deletion : deletions) {
+            pending.put(deletion[0] + "/" + deletion[1], executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return api.deleteTarget(deletion[0], deletion[1]);
+                }
+            }));
+        }
+        awaitAll(pending);
+        final Map<String, String> moved = new LinkedHashMap<String, String>();
+        for (final String[] deletion : deletions) {
+            final int index = shardIds.indexOf(deletion[0]);
+            shardSizes.set(index, shardSizes.get(index) - 1);
+            dirtyShardIds.add(deletion[0]);
+
+            final String newTargetId = idsByShard.get(shardIds.indexOf(deletion[3])).get(deletion[2]);
+            moved.put(deletion[1], newTargetId);
+            for (final MoveListener listener : moveListeners) {
+                listener.onTargetMoved(deletion[2], deletion[0], deletion[1], deletion[3], newTargetId);
+            }
+        }
+
+        return moved;
+    }
+
+    /**
+     * @return id of each of the given targets, keyed by target name
+     */
+    private static Map<String, String> targetIds(final JSONArray targets) throws JSONException {
+        final Map<String, String> ids = new HashMap<String, String>();
+        for (int i = 0; i < targets.length(); i++) {
+            final JSONObject target = targets.getJSONObject(i);
+            ids.put(target.getString("name"), target.getString("id"));
+        }
+        return ids;
+    }
+
+    /**
+     * Adds the given targets to their shards concurrently and updates the shard sizes.
+     */
+    private Map<String, JSONObject> addToShards(final Map<Integer, JSONArray> targetsByShard) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Map<String, Future<JSONObject>> additions = new LinkedHashMap<String, Future<JSONObject>>();
+        for (final Map.Entry<Integer, JSONArray> entry : targetsByShard.entrySet()) {
+            final String tcId = shardIds.get(entry.getKey());
+            additions.put(tcId, executor.submit(new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() throws Exception {
+                    try {
+                        return api.addTargets(tcId, entry.getValue());
+                    } finally {
+                        // even a failed batch may have added some of the targets
+                        dirtyShardIds.add(tcId);
+                    }
+                }
+            }));
+        }
+
+        final Map<String, JSONObject> statuses = awaitAll(additions);
+        for (final Map.Entry<Integer, JSONArray> entry : targetsByShard.entrySet()) {
+            shardSizes.set(entry.getKey(), shardSizes.get(entry.getKey()) + entry.getValue().length());
+        }
+        return statuses;
+    }
+
+    /**
+     * @return hash over the properties of the given targets that are part of a generated collection
+     */
+    private static String fingerprint(final JSONArray targets) throws IOException, JSONException {
+        final List<String> entries = new ArrayList<String>();
+        for (int i = 0; i < targets.length(); i++) {
+            final JSONObject target = targets.getJSONObject(i);
+            final StringBuilder entry = new StringBuilder(target.optString("id"));
+            for (final String property : MOVED_PROPERTIES) {
+                entry.append('\n').append(target.opt(property));
+            }
+            entries.add(entry.toString());
+        }
+        // the order of a listing is not guaranteed
+        Collections.sort(entries);
+
+        final StringBuilder text = new StringBuilder();
+        for (final String entry : entries) {
+            text.append(entry).append('\0');
+        }
+        return ContentHash.of(new ByteArrayInputStream(text.toString().getBytes(UTF_8)));
+    }
+
+    private void loadGenerationState() throws IOException {
+        generatedFingerprints.clear();
+        if (generationStateFile == null || !generationStateFile.isFile()) {
+            return;
+        }
+        final InputStream in = new FileInputStream(generationStateFile);
+        try {
+            generatedFingerprints.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void storeGenerationState() throws IOException {
+        if (generationStateFile == null) {
+            return;
+        }
+        // replace the state atomically, so a crash never leaves a partially written file behind
+        final File directory = generationStateFile.getAbsoluteFile().getParentFile();
+        final File tempFile = File.createTempFile(generationStateFile.getName(), ".tmp", directory);
+        final OutputStream out = new FileOutputStream(tempFile);
+        try {
+            generatedFingerprints.store(out, "fingerprint of the targets of each shard of " + name + " at its last generation");
+        } finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), generationStateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void checkOpen() {
+        if (shardIds.isEmpty()) {
+            throw new IllegalStateException("open() has to be called first");
+        }
+    }
+
+    private static JSONObject copyForMove(final JSONObject target) throws JSONException {
+        final JSONObject copy = new JSONObject();
+        for (final String property : MOVED_PROPERTIES) {
+            if (target.has(property) && !target.isNull(property)) {
+                copy.put(property, target.get(property));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Jump consistent hash of the target's name: growing from n to n + 1 shards only moves the targets that belong to
+     * the new shard, about 1 / (n + 1) of them.
+     */
+    static int shardIndex(final String targetName, final int shardCount) {
+        long key = hashName(targetName);
+        long bucket = -1;
+        long next = 0;
+        while (next < shardCount) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    private static long hashName(final String targetName) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(targetName.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static <T> Map<String, T> awaitAll(final Map<String, Future<T>> futures) throws IOException, JSONException, CloudManagerAPI.APIException, InterruptedException {
+        final Map<String, T> results = new LinkedHashMap<String, T>();
+        for (final Map.Entry<String, Future<T>> entry : futures.entrySet()) {
+            results.put(entry.getKey(), Futures.await(entry.getValue()));
+        }
+        return results;
+    }
+}
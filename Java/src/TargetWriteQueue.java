@@ -0,0 +1,526 @@
+/**
+ * TargetWriteQueue buffers the target mutations of one target collection and
+ * sends them to the Wikitude Cloud Targets API in compacted batches.
+ *
+ * This example is published under Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class TargetWriteQueue implements Closeable {
+
+    /**
+     * Result of a buffered mutation, completed once the mutation was sent to the service. Mutations that were
+     * superseded by a later one, e.g. an add followed by a delete of the same target, complete with null.
+     */
+    public static class MutationFuture<T> implements Future<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T value;
+        private Throwable error;
+
+        @SuppressWarnings("unchecked")
+        void complete(final Object value) {
+            if (done.getCount() > 0) {
+                this.value = (T) value;
+                done.countDown();
+            }
+        }
+
+        void fail(final Throwable error) {
+            if (done.getCount() > 0) {
+                this.error = error;
+                done.countDown();
+            }
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            // buffered mutations cannot be withdrawn
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private T result() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return value;
+        }
+    }
+
+    private enum Type {
+        ADD, UPDATE, DELETE
+    }
+
+    /**
+     * A buffered mutation of a single target, keyed by target name for adds and by target id otherwise.
+     */
+    private static class Mutation {
+        private final Type type;
+        private final String key;
+        private final JSONObject data;
+        private final List<MutationFuture<?>> futures = new ArrayList<MutationFuture<?>>();
+
+        Mutation(final Type type, final String key, final JSONObject data) {
+            this.type = type;
+            this.key = key;
+            this.data = data;
+        }
+
+        void complete(final Object value) {
+            for (final MutationFuture<?> future : futures) {
+                future.complete(value);
+            }
+        }
+
+        void fail(final Throwable error) {
+            for (final MutationFuture<?> future : futures) {
+                future.fail(error);
+            }
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final CloudManagerAPI api;
+    private final String tcId;
+    // mutations are appended here until they were sent, so they survive a crash. Each flush rewrites the file
+    // with the mutations that are left.
+    private final File spillFile;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    // mutations not yet sent, in order of their first appearance
+    private final Map<String, Mutation> pending = new LinkedHashMap<String, Mutation>();
+    // only one flush at a time, so mutations of the same target are sent in order
+    private final Object flushLock = new Object();
+
+    /**
+     * Creates a new queue for the given target collection. Mutations left in the spill file by a previous
+     * queue are loaded and sent with the next flush.
+     *
+     * @param api
+     *            The API object used to send the mutations
+     * @param tcId
+     *            The id of the target collection
+     * @param spillFile
+     *            The file buffered mutations are persisted to
+     * @param maxBatchSize
+     *            The number of buffered mutations that triggers a flush, also the maximal number of targets per addTargets call
+     * @param maxDelay
+     *            The maximal time in milliseconds a mutation is buffered
+     * @throws IOException thrown in case the spill file could not be read
+     * @throws JSONException thrown in case the spill file is no valid JSON
+     */
+    public TargetWriteQueue(final CloudManagerAPI api, final String tcId, final File spillFile, final int maxBatchSize, final long maxDelay) throws IOException, JSONException {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.api = api;
+        this.tcId = tcId;
+        this.spillFile = spillFile;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "TargetWriteQueue-" + tcId);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        loadSpill();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, maxDelay, maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers a target that should be added to the collection. Adds are sent in batches through addTargets.
+     * @param target JSON representation of target, e.g. {"name" : "foo", "imageUrl": "http://myserver.com/path/img.jpg"}
+     * @return completes with the status of the addTargets operation that added the target
+     * @throws IOException thrown in case the spill file could not be written, the mutation is not buffered then
+     * @throws JSONException thrown in case the target has no name
+     */
+    public Future<JSONObject> add(final JSONObject target) throws IOException, JSONException {
+        final MutationFuture<JSONObject> future = new MutationFuture<JSONObject>();
+        final Mutation mutation = new Mutation(Type.ADD, target.getString("name"), new JSONObject(target.toString()));
+        mutation.futures.add(future);
+        enqueue(mutation);
+
+        return future;
+    }
+
+    /**
+     * Buffers an update of a target. Updates of a target that is still buffered for adding are merged into the add,
+     * repeated updates of the same target are merged into one.
+     * @param targetId id of the target, or name of a target that is still buffered for adding
+     * @param changes JSON representation of the target's properties that shall be updated, e.g. { "physicalHeight": 200 }
+     * @return completes with the JSON representation of the updated target, or the status of the addTargets
+     *      operation in case the update was merged into an add
+     * @throws IOException thrown in case the spill file could not be written, the mutation is not buffered then
+     * @throws JSONException thrown in case the changes could not be merged
+     */
+    public Future<JSONObject> update(final String targetId, final JSONObject changes) throws IOException, JSONException {
+        final MutationFuture<JSONObject> future = new MutationFuture<JSONObject>();
+        final Mutation mutation = new Mutation(Type.UPDATE, targetId, new JSONObject(changes.toString()));
+        mutation.futures.add(future);
+        enqueue(mutation);
+
+        return future;
+    }
+
+    /**
+     * Buffers the deletion of a target. Deleting a target that is still buffered for adding drops the add,
+     * buffered updates of the target are dropped.
+     * @param targetId id of the target, or name of a target that is still buffered for adding
+     * @return completes with true once the target was deleted
+     * @throws IOException thrown in case the spill file could not be written, the mutation is not buffered then
+     */
+    public Future<Boolean> delete(final String targetId) throws IOException {
+        final MutationFuture<Boolean> future = new MutationFuture<Boolean>();
+        final Mutation mutation = new Mutation(Type.DELETE, targetId, null);
+        mutation.futures.add(future);
+        enqueue(mutation);
+
+        return future;
+    }
+
+    /**
+     * @return number of buffered mutations
+     */
+    public int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Sends all buffered mutations. Failed mutations complete their futures with the error and are not retried.
+     * If the flush is interrupted, the mutations not sent yet stay buffered ahead of the ones buffered meanwhile
+     * and are compacted with them, their futures complete with the interruption.
+     * @throws IOException thrown in case the spill file could not be written
+     * @throws InterruptedException thrown in case polling is interrupted
+     */
+    public void flush() throws IOException, InterruptedException {
+        synchronized (flushLock) {
+            final List<Mutation> batch;
+            synchronized (pending) {
+                batch = new ArrayList<Mutation>(pending.values());
+                pending.clear();
+            }
+
+            final List<Mutation> sent = new ArrayList<Mutation>();
+            try {
+                final List<Mutation> adds = new ArrayList<Mutation>();
+                for (final Mutation mutation : batch) {
+                    if (mutation.type == Type.ADD) {
+                        adds.add(mutation);
+                        if (adds.size() == maxBatchSize) {
+                            sent.addAll(adds);
+                            sendAdds(adds);
+                            adds.clear();
+                        }
+                    } else {
+                        sent.add(mutation);
+                        sendSingle(mutation);
+                    }
+                }
+                sent.addAll(adds);
+                sendAdds(adds);
+            } catch (InterruptedException e) {
+                synchronized (pending) {
+                    for (final Mutation mutation : batch) {
+                        if (!sent.contains(mutation)) {
+                            mutation.fail(e);
+                            mutation.futures.clear();
+                        }
+                    }
+                }
+                throw e;
+            } finally {
+                // the spill file still contains the sent mutations until here, so a crash during the flush loses nothing
+                synchronized (pending) {
+                    batch.removeAll(sent);
+                    requeue(batch);
+                    rewriteSpill();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends all buffered mutations and stops the background flushes.
+     * @throws IOException thrown in case the spill file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendAdds(final List<Mutation> adds) throws InterruptedException {
+        if (adds.isEmpty()) {
+            return;
+        }
+        final JSONArray targets = new JSONArray();
+        for (final Mutation add : adds) {
+            targets.put(add.data);
+        }
+
+        try {
+            final JSONObject status = api.addTargets(tcId, targets);
+            for (final Mutation add : adds) {
+                add.complete(status);
+            }
+        } catch (InterruptedException e) {
+            failAll(adds, e);
+            throw e;
+        } catch (Exception e) {
+            failAll(adds, e);
+        }
+    }
+
+    private void sendSingle(final Mutation mutation) {
+        try {
+            if (mutation.type == Type.UPDATE) {
+                mutation.complete(api.updateTarget(tcId, mutation.key, mutation.data));
+            } else {
+                mutation.complete(api.deleteTarget(tcId, mutation.key));
+            }
+        } catch (Exception e) {
+            mutation.fail(e);
+        }
+    }
+
+    /**
+     * Persists the mutation and buffers it, a mutation that could not be persisted is not buffered either.
+     */
+    private void enqueue(final Mutation mutation) throws IOException {
+        synchronized (pending) {
+            appendSpill(mutation);
+            buffer(mutation);
+        }
+        triggerFlushIfFull();
+    }
+
+    /**
+     * Compacts the mutation with the buffered mutation of the same target, if any. The caller holds the lock
+     * of pending.
+     */
+    private void buffer(final Mutation mutation) {
+        final Mutation existing = pending.get(mutation.key);
+        if (mutation.type == Type.ADD) {
+            if (existing != null && existing.type == Type.ADD) {
+                mergeInto(existing, mutation);
+            } else {
+                pending.put(mutation.key, mutation);
+            }
+        } else if (mutation.type == Type.UPDATE) {
+            if (existing == null) {
+                pending.put(mutation.key, mutation);
+            } else if (existing.type == Type.DELETE) {
+                mutation.fail(new IllegalStateException("target " + mutation.key + " is about to be deleted"));
+            } else {
+                mergeInto(existing, mutation);
+            }
+        } else if (existing != null && existing.type == Type.ADD) {
+            // the target never reaches the service
+            pending.remove(mutation.key);
+            existing.complete(null);
+            mutation.complete(Boolean.TRUE);
+        } else if (existing != null && existing.type == Type.DELETE) {
+            existing.futures.addAll(mutation.futures);
+        } else {
+            if (existing != null) {
+                existing.complete(null);
+                pending.remove(mutation.key);
+            }
+            pending.put(mutation.key, mutation);
+        }
+    }
+
+    /**
+     * Puts the mutations left over by an interrupted flush back ahead of the ones buffered meanwhile, so later
+     * mutations of the same target, e.g. a delete of a target whose add was not sent yet, are compacted with them.
+     * The caller holds the lock of pending.
+     */
+    private void requeue(final List<Mutation> leftovers) {
+        if (leftovers.isEmpty()) {
+            return;
+        }
+        final List<Mutation> newer = new ArrayList<Mutation>(pending.values());
+        pending.clear();
+        for (final Mutation leftover : leftovers) {
+            pending.put(leftover.key, leftover);
+        }
+        for (final Mutation mutation : newer) {
+            buffer(mutation);
+        }
+    }
+
+    private static void mergeInto(final Mutation existing, final Mutation mutation) {
+        try {
+            merge(existing.data, mutation.data);
+            existing.futures.addAll(mutation.futures);
+        } catch (JSONException e) {
+            mutation.fail(e);
+        }
+    }
+
+    private static void failAll(final List<Mutation> mutations, final Throwable error) {
+        for (final Mutation mutation : mutations) {
+            mutation.fail(error);
+        }
+    }
+
+    private void triggerFlushIfFull() {
+        if (size() >= maxBatchSize && !scheduler.isShutdown()) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // the mutations are still in the spill file, they are sent with the next flush of a new queue
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void merge(final JSONObject target, final JSONObject changes) throws JSONException {
+        final Iterator<?> keys = changes.keys();
+        while (keys.hasNext()) {
+            final String key = (String) keys.next();
+            target.put(key, changes.get(key));
+        }
+    }
+
+    private void loadSpill() throws IOException, JSONException {
+        if (!spillFile.isFile()) {
+            return;
+        }
+        final List<String> lines = Files.readAllLines(spillFile.toPath(), UTF_8);
+        synchronized (pending) {
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).isEmpty()) {
+                    continue;
+                }
+                final JSONObject mutation;
+                try {
+                    mutation = new JSONObject(lines.get(i));
+                } catch (JSONException e) {
+                    if (i == lines.size() - 1) {
+                        // the last append was cut off by a crash, its call did not return
+                        break;
+                    }
+                    throw e;
+                }
+                final String key = mutation.getString("key");
+                buffer(new Mutation(Type.valueOf(mutation.getString("type")), key, mutation.optJSONObject("data")));
+            }
+            // start over with the compacted mutations, later appends must not continue a cut off line
+            rewriteSpill();
+        }
+    }
+
+    /**
+     * Appends a single mutation to the spill file, so buffering a mutation costs the same for any number of
+     * buffered mutations.
+     */
+    private void appendSpill(final Mutation mutation) throws IOException {
+        final String line = toJson(mutation).toString() + "\n";
+        Files.write(spillFile.toPath(), line.getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Replaces the spill file by the buffered mutations, the caller holds the lock of pending.
+     */
+    private void rewriteSpill() throws IOException {
+        final StringBuilder lines = new StringBuilder();
+        for (final Mutation mutation : pending.values()) {
+            lines.append(toJson(mutation).toString()).append('\n');
+        }
+
+        // replace the spill file atomically, so a crash never leaves a partially written file behind
+        final File directory = spillFile.getAbsoluteFile().getParentFile();
+        final File tempFile = File.createTempFile(spillFile.getName(), ".tmp", directory);
+        Files.write(tempFile.toPath(), lines.toString().getBytes(UTF_8));
+        Files.move(tempFile.toPath(), spillFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static JSONObject toJson(final Mutation mutation) throws IOException {
+        try {
+            final JSONObject spilled = new JSONObject();
+            spilled.put("type", mutation.type.name());
+            spilled.put("key", mutation.key);
+            spilled.putOpt("data", mutation.data);
+            return spilled;
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -9,7 +9,9 @@
  */
 
 "use strict";
+var http = require('http');
 var https = require('https');
+var url = require('url');
 
 class APIError extends Error {
     constructor(message, code) {
@@ -34,7 +36,7 @@ class ServiceError extends APIError {
 }
 
 // The endpoint where the Wikitude Cloud Targets API resides.
-var API_ENDPOINT_ROOT       = "api.wikitude.com";
+var API_ENDPOINT_ROOT       = "https://api.wikitude.com";
 
 // placeholders used for url-generation
 var PLACEHOLDER_TC_ID       = "${TC_ID}";
@@ -79,6 +81,8 @@ var apiToken = null;
 var apiVersion = null;
 // interval used to poll status of asynchronous operations
 var apiPollInterval = null;
+// The endpoint requests are sent to
+var apiEndpoint = null;
 
 /**
  * @class ManagerAPI
@@ -90,12 +94,14 @@ module.exports = class ManagerAPI {
      * @param {string} token The token to use when connecting to the endpoint
      * @param {number} version The version of the API we will use
      * @param {number} [pollInterval=10000] in milliseconds used to poll status of asynchronous operations
+     * @param {string} [endpoint="https://api.wikitude.com"] the endpoint to send requests to, e.g. a proxy or a local stand-in
      */
-    constructor(token, version, pollInterval) {
+    constructor(token, version, pollInterval, endpoint) {
         // save the configured values
         apiToken = token;
         apiVersion = version;
         apiPollInterval = pollInterval || 10000;
+        apiEndpoint = url.parse(endpoint || API_ENDPOINT_ROOT);
     }
 
     /**
@@ -447,6 +453,9 @@ function sendRequest(method, path, payload) {
 
                 if ( hasJsonContent(response) ) {
                     jsonResponse = readJsonBody(response);
+                } else {
+                    // discard the empty body, so the connection is released
+                    response.resume();
                 }
 
                 return jsonResponse;
@@ -493,14 +502,16 @@ function request(method, path, headers, data) {
             // certificate of the api.wikitude.com server to the certificate store and make it accessible in Node.js.
             // Otherwise, you need to use a http connection instead.
             rejectUnauthorized: false,
-            hostname: API_ENDPOINT_ROOT,
+            hostname: apiEndpoint.hostname,
+            port: apiEndpoint.port,
             path,
             method,
             headers
         };
 
         // Create the request
-        var request = https.request(options, fulfil);
+        var transport = apiEndpoint.protocol === 'http:' ? http : https;
+        var request = transport.request(options, fulfil);
 
         // On error, we reject
         request.on('error', reject);
@@ -595,6 +606,8 @@ function sendAsyncRequest( method, path, payload ) {
                     initialDelay = readJsonBody(response)
                         .then(status => status.estimatedLatency)
                     ;
+                } else {
+                    response.resume();
                 }
 
                 return (
@@ -0,0 +1,32 @@
+/**
+ * The workload of the cross-language conformance suite, see Java/src/ConformanceSuite.java.
+ * Usage: node ManagerAPIConformance.js <endpoint> <pollInterval>
+ *
+ * This example is published under Apache License, Version 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+ *
+ * @author Wikitude
+ */
+
+const ManagerApi = require('./ManagerAPI.js');
+
+const token = 'conformance-token';
+const api = new ManagerApi(token, 3, parseInt(process.argv[3], 10), process.argv[2]);
+
+const targets = [1, 2].map(i => ({
+    name: "target_" + i,
+    imageUrl: "http://s3-eu-west-1.amazonaws.com/web-api-hosting/examples_data/surfer.jpeg"
+}));
+
+var tcId;
+api.createTargetCollection("conformance")
+    .then(tc => {
+        tcId = tc.id;
+        return api.addTargets(tcId, targets);
+    })
+    .then(() => api.getAllTargets(tcId))
+    .then(() => api.generateTargetCollection(tcId))
+    .then(() => api.deleteTargetCollection(tcId))
+    .catch(error => {
+        console.error(error.toString());
+        process.exit(1);
+    });
@@ -89,12 +89,13 @@ class ManagerAPI
      * @param string $token The token to use when connecting to the endpoint
      * @param string $version The version of the API we will use
      * @param int $pollInterval in milliseconds used to poll status of asynchronous operations
+     * @param string $apiRoot the endpoint to send requests to, e.g. a proxy or a local stand-in
      */
-    function __construct($token, $version = "2", $pollInterval = 10000){
+    function __construct($token, $version = "2", $pollInterval = 10000, $apiRoot = null){
         //initialize the values
         $this->token = $token;
         $this->version = $version;
-        $this->apiRoot = $this->API_HOST;
+        $this->apiRoot = $apiRoot ? $apiRoot : $this->API_HOST;
         $this->pollInterval = $pollInterval;
     }
 
@@ -0,0 +1,27 @@
+<?php
+// The workload of the cross-language conformance suite, see Java/src/ConformanceSuite.java.
+// Usage: php ManagerApiConformance.php <endpoint> <pollInterval>
+// This example is published under Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0.html
+// @author Wikitude
+
+include('./ManagerApi.php');
+
+$token = "conformance-token";
+
+$api = new ManagerAPI($token, "3", intval($argv[2]), $argv[1]);
+
+$tc = $api->createTargetCollection("conformance");
+$tcId = $tc["id"];
+
+$targets = array();
+for ($i = 1; $i <= 2; $i++) {
+    $targets[] = array(
+        "name" => "target_" . $i,
+        "imageUrl" => "http://s3-eu-west-1.amazonaws.com/web-api-hosting/examples_data/surfer.jpeg"
+    );
+}
+$api->addTargets($tcId, $targets);
+$api->getAllTargets($tcId);
+$api->generateTargetCollection($tcId);
+$api->deleteTargetCollection($tcId);
@@ -76,10 +76,12 @@ class ManagerAPI:
     # @param token: The token to use when connecting to the endpoint
     # @param version: The version of the API we will use
     # @param pollInterval: in milliseconds used to poll status of asynchronous operations
-    def __init__(self, token, version, pollInterval=10000):
+    # @param endpoint: the endpoint to send requests to, e.g. a proxy or a local stand-in
+    def __init__(self, token, version, pollInterval=10000, endpoint=None):
         self.token = token
         self.version = version
         self.pollInterval = pollInterval
+        self.endpoint = endpoint or ManagerAPI.API_ENDPOINT
 
     # Create target collection with given name.
     # @param tcName target collection's name. Note that response contains an "id" 
@@ -316,7 +318,7 @@ class ManagerAPI:
         return jsonStr
 
     def __sendApiRequest(self, method, path, payload=None):
-        url = ManagerAPI.API_ENDPOINT + path
+        url = self.endpoint + path
 
         headers = {
             'Content-Type': ManagerAPI.CONTENT_TYPE_JSON,
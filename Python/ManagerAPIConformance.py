@@ -0,0 +1,27 @@
+# The workload of the cross-language conformance suite, see Java/src/ConformanceSuite.java.
+# Usage: python3 ManagerAPIConformance.py <endpoint> <pollInterval>
+# This example is published under Apache License, Version 2.0
+# http://www.apache.org/licenses/LICENSE-2.0.html
+# @author Wikitude
+
+import sys
+
+from ManagerAPI import ManagerAPI
+
+API_TOKEN = "conformance-token"
+API_VERSION = "3"
+
+api = ManagerAPI(API_TOKEN, API_VERSION, int(sys.argv[2]), sys.argv[1])
+
+tcId = api.createTargetCollection('conformance')['id']
+
+targets = []
+for i in range(1, 3):
+    targets.append({
+        'name': 'target_' + str(i),
+        'imageUrl': 'http://s3-eu-west-1.amazonaws.com/web-api-hosting/examples_data/surfer.jpeg'
+    })
+api.addTargets(tcId, targets)
+api.getAllTargets(tcId)
+api.generateTargetCollection(tcId)
+api.deleteTargetCollection(tcId)
@@ -75,11 +75,13 @@ class ManagerAPI
   # @param token: The token to use when connecting to the endpoint
   # @param version: The version of the API we will use
   # @param pollInterval: in milliseconds used to poll status of asynchronous operations
-  def initialize(token, version, pollInterval = 10000)
+  # @param endpoint: the endpoint to send requests to, e.g. a proxy or a local stand-in
+  def initialize(token, version, pollInterval = 10000, endpoint = API_ENDPOINT)
     # save the configured values
     @token = token
     @version = version
     @pollInterval = pollInterval
+    @endpoint = endpoint
   end
   
   public
@@ -375,11 +377,11 @@ class ManagerAPI
   end
   
   def sendAPIRequest(method, path, payload = nil)
-    url = API_ENDPOINT + path
+    url = @endpoint + path
     uri = URI(url)
     
     http = Net::HTTP.new(uri.host, uri.port)
-    http.use_ssl = true
+    http.use_ssl = uri.scheme == 'https'
     
     if method.upcase == 'GET'
       request = Net::HTTP::Get.new(uri.path)
@@ -0,0 +1,24 @@
+# The workload of the cross-language conformance suite, see Java/src/ConformanceSuite.java.
+# Usage: ruby ManagerApiConformance.rb <endpoint> <pollInterval>
+# This example is published under Apache License, Version 2.0
+# http://www.apache.org/licenses/LICENSE-2.0.html
+# @author Wikitude
+require_relative './ManagerApi'
+
+API_TOKEN = 'conformance-token'
+API_VERSION = 3
+
+api = ManagerAPI.new(API_TOKEN, API_VERSION, ARGV[1].to_i, ARGV[0])
+
+tcId = api.createTargetCollection('conformance')['id']
+
+targets = (1..2).map do |i|
+  {
+    'name' => "target_#{i}",
+    'imageUrl' => 'http://s3-eu-west-1.amazonaws.com/web-api-hosting/examples_data/surfer.jpeg'
+  }
+end
+api.addTargets(tcId, targets)
+api.getAllTargets(tcId)
+api.generateTargetCollection(tcId)
+api.deleteTargetCollection(tcId)